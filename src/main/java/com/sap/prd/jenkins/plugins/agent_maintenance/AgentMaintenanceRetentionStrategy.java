@@ -6,13 +6,23 @@ import hudson.Extension;
 import hudson.model.Descriptor;
 import hudson.model.DescriptorVisibilityFilter;
 import hudson.model.Executor;
+import hudson.model.ExecutorListener;
 import hudson.model.Queue;
 import hudson.model.Result;
 import hudson.model.Slave;
 import hudson.slaves.OfflineCause;
 import hudson.slaves.RetentionStrategy;
 import hudson.slaves.SlaveComputer;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.jcip.annotations.GuardedBy;
@@ -22,10 +32,15 @@ import org.kohsuke.stapler.DataBoundConstructor;
 /**
  * {@link RetentionStrategy} that allows to take an agent offline for a defined time window for maintenance.
  */
-public class AgentMaintenanceRetentionStrategy extends RetentionStrategy<SlaveComputer> {
+public class AgentMaintenanceRetentionStrategy extends RetentionStrategy<SlaveComputer> implements ExecutorListener {
 
   private static final Logger LOGGER = Logger.getLogger(AgentMaintenanceRetentionStrategy.class.getName());
 
+  /*
+   * Disconnects running in the background, so that an agent is not disconnected again while it is going offline.
+   */
+  private static final Map<String, Future<?>> disconnecting = new ConcurrentHashMap<>();
+
   private RetentionStrategy<SlaveComputer> regularRetentionStrategy;
 
   @DataBoundConstructor
@@ -44,60 +59,118 @@ public class AgentMaintenanceRetentionStrategy extends RetentionStrategy<SlaveCo
   @Override
   public boolean isAcceptingTasks(SlaveComputer c) {
     MaintenanceWindow maintenance = MaintenanceHelper.getInstance().getMaintenance(c.getName());
-    if (maintenance != null) {
+    if (isTakingOffline(c, maintenance) || DrainLeadTime.get().isDraining(c.getName())) {
       return false;
     }
     return regularRetentionStrategy.isAcceptingTasks(c);
   }
 
+  @Override
+  public void taskAccepted(Executor executor, Queue.Task task) {
+    if (regularRetentionStrategy instanceof ExecutorListener listener) {
+      listener.taskAccepted(executor, task);
+    }
+  }
+
+  @Override
+  public void taskStarted(Executor executor, Queue.Task task) {
+    if (regularRetentionStrategy instanceof ExecutorListener listener) {
+      listener.taskStarted(executor, task);
+    }
+  }
+
+  @Override
+  public void taskCompleted(Executor executor, Queue.Task task, long durationMS) {
+    DrainLeadTime.get().record(executor.getOwner().getName(), durationMS);
+    if (regularRetentionStrategy instanceof ExecutorListener listener) {
+      listener.taskCompleted(executor, task, durationMS);
+    }
+  }
+
+  @Override
+  public void taskCompletedWithProblems(Executor executor, Queue.Task task, long durationMS, Throwable problems) {
+    DrainLeadTime.get().record(executor.getOwner().getName(), durationMS);
+    if (regularRetentionStrategy instanceof ExecutorListener listener) {
+      listener.taskCompletedWithProblems(executor, task, durationMS, problems);
+    }
+  }
+
   @Override
   public boolean isManualLaunchAllowed(final SlaveComputer c) {
     MaintenanceWindow maintenance = MaintenanceHelper.getInstance().getMaintenance(c.getName());
-    if (maintenance != null) {
+    if (isTakingOffline(c, maintenance)) {
       return false;
     }
     return regularRetentionStrategy.isManualLaunchAllowed(c);
   }
 
+  private static boolean isTakingOffline(SlaveComputer c, MaintenanceWindow maintenance) {
+    return maintenance != null && !maintenance.isDegraded() && !MaintenanceConcurrency.get().isDeferred(c.getName());
+  }
+
   @Override
   @GuardedBy("hudson.model.Queue.lock")
   public synchronized long check(final SlaveComputer c) {
+    long start = System.nanoTime();
+    try {
+      return checkMaintenance(c);
+    } finally {
+      MaintenanceMetrics.RETENTION_CHECK.record(System.nanoTime() - start);
+    }
+  }
+
+  private long checkMaintenance(final SlaveComputer c) {
     MaintenanceWindow maintenance = MaintenanceHelper.getInstance().getMaintenance(c.getName());
     MaintenanceHelper.getInstance().checkRecurring(c.getName());
     LOGGER.log(Level.FINER, "Checking for Maintenance Window for agent {0}. online = {1}, idle = {2}",
         new Object[] { c.getName(), c.isOnline(), c.isIdle() });
+    if (maintenance == null || maintenance.isDegraded()) {
+      MaintenanceConcurrency.get().release(c.getName());
+    } else if (!MaintenanceConcurrency.get().admit(c, maintenance)) {
+      LOGGER.log(Level.FINE, "Maintenance of agent {0} is deferred because too many agents of its labels are in maintenance",
+          c.getName());
+      return regularRetentionStrategy.check(c);
+    }
     if (maintenance != null) {
       LOGGER.log(Level.FINE, "Active Maintenance Window found for agent {0}: startTime = {1}, endTime = {2}",
           new Object[] { c.getName(), maintenance.getStartTime(), maintenance.getEndTime() });
+      String computerName = c.getName();
+      if (maintenance.markStarted()) {
+        MaintenanceListener.fire(l -> l.onStarted(computerName, maintenance));
+      }
+      if (maintenance.isDegraded()) {
+        if (c.isOffline()) {
+          return regularRetentionStrategy.check(c);
+        }
+        reduceCapacity(c, maintenance);
+        return 1;
+      }
 
       if (c.isOnline()) {
+        if (isDisconnecting(computerName)) {
+          return 1;
+        }
         if (maintenance.isKeepUpWhenActive()) {
           if (!maintenance.isMaxWaitTimeFinished()) {
             if (c.isIdle()) {
-              Queue.withLock(new Runnable() {
-                @Override
-                public void run() {
-                  LOGGER.log(Level.INFO, "Disconnecting agent {0} as it was idle when maintenance window started.",
-                      new Object[] { c.getName() });
-                  c.disconnect(maintenance.getOfflineCause(c.getName()));
-                }
-              });
+              LOGGER.log(Level.INFO, "Disconnecting agent {0} as it was idle when maintenance window started.",
+                  new Object[] { c.getName() });
+              disconnect(c, maintenance, true);
+            } else if (maintenance.markDraining()) {
+              MaintenanceListener.fire(l -> l.onDraining(computerName, maintenance));
             }
           } else {
             if (maintenance.buildsHaveBeenAborted()) {
               LOGGER.log(Level.INFO,
                   "Disconnecting agent {0} as it has finished its scheduled uptime and max waiting time for builds to finish is over",
                   new Object[] { c.getName() });
-              c.disconnect(maintenance.getOfflineCause(c.getName()));
+              disconnect(c, maintenance, false);
             } else {
               LOGGER.log(Level.INFO, "Aborting running builds on agent {0} as it has finished its scheduled uptime "
                   + "and max waiting time for builds to finish is over", new Object[] { c.getName() });
-              for (Executor e : c.getExecutors()) {
-                if (e.isBusy()) {
-                  e.interrupt(Result.ABORTED, new MaintenanceInterruption());
-                }
-              }
+              abort(c.getExecutors());
               maintenance.setAborted(true);
+              MaintenanceListener.fire(l -> l.onBuildsAborted(computerName, maintenance));
             }
           }
         } else {
@@ -106,16 +179,13 @@ public class AgentMaintenanceRetentionStrategy extends RetentionStrategy<SlaveCo
             // has selected the break builds
             // option!
             LOGGER.log(Level.INFO, "Disconnecting agent {0} as it has finished its scheduled uptime", new Object[] { c.getName() });
-            c.disconnect(maintenance.getOfflineCause(c.getName()));
+            disconnect(c, maintenance, false);
           } else {
             LOGGER.log(Level.INFO, "Aborting running builds on agent {0} as it has finished its scheduled uptime",
                 new Object[] { c.getName() });
-            for (Executor e : c.getExecutors()) {
-              if (e.isBusy()) {
-                e.interrupt(Result.ABORTED, new MaintenanceInterruption());
-              }
-            }
+            abort(c.getExecutors());
             maintenance.setAborted(true);
+            MaintenanceListener.fire(l -> l.onBuildsAborted(computerName, maintenance));
           }
         }
       }
@@ -127,6 +197,9 @@ public class AgentMaintenanceRetentionStrategy extends RetentionStrategy<SlaveCo
             LOGGER.log(Level.INFO, "Computer should not be taken online automatically: {0}", c.getName());
             return 5;
           }
+          if (MaintenanceReconnector.get().submit(c)) {
+            return 1;
+          }
         }
       }
       return regularRetentionStrategy.check(c);
@@ -134,6 +207,93 @@ public class AgentMaintenanceRetentionStrategy extends RetentionStrategy<SlaveCo
     return 1;
   }
 
+  private static boolean isDisconnecting(String computerName) {
+    Future<?> running = disconnecting.get(computerName);
+    if (running != null && running.isDone()) {
+      disconnecting.remove(computerName, running);
+      running = null;
+    }
+    return running != null || MaintenanceDisconnector.get().isDisconnecting(computerName);
+  }
+
+  /**
+   * Disconnects the agent in the background or queues the disconnect when {@link MaintenanceDisconnector} is enabled.
+   * The agent is checked again before it is disconnected, an idle agent is disconnected under the queue lock so that
+   * it doesn't take a task in between. The disconnect counts as running until the agent is offline.
+   */
+  private static void disconnect(SlaveComputer c, MaintenanceWindow maintenance, boolean idle) {
+    if (MaintenanceDisconnector.get().submit(c)) {
+      return;
+    }
+    String computerName = c.getName();
+    Callable<Future<?>> disconnect = () -> {
+      if (!c.isOnline() || (idle && !c.isIdle())) {
+        return null;
+      }
+      Future<?> offline = c.disconnect(maintenance.getOfflineCause(computerName));
+      MaintenanceListener.fire(l -> l.onDisconnected(computerName, maintenance));
+      return offline;
+    };
+    disconnecting.values().removeIf(Future::isDone);
+    disconnecting.put(computerName, MaintenanceSideEffects.execute(() -> {
+      try {
+        Future<?> offline = idle ? Queue.withLock(disconnect) : disconnect.call();
+        if (offline != null) {
+          offline.get(1, TimeUnit.MINUTES);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException | TimeoutException e) {
+        LOGGER.log(Level.WARNING, "Agent " + computerName + " did not go offline for maintenance", e);
+      } catch (Exception e) {
+        LOGGER.log(Level.WARNING, "Failed to disconnect agent " + computerName + " for maintenance", e);
+      }
+    }));
+  }
+
+  /**
+   * Aborts the builds on the busy executors. The executors are interrupted in the background.
+   */
+  private static void abort(List<Executor> executors) {
+    for (Executor e : executors) {
+      if (e.isBusy()) {
+        MaintenanceRequeue.aborting(e);
+        MaintenanceSideEffects.execute(() -> e.interrupt(Result.ABORTED, new MaintenanceInterruption()));
+      }
+    }
+  }
+
+  /**
+   * Keeps the agent online but reduces the number of running builds to the remaining executors.
+   * New tasks are held back by {@link MaintenanceQueueTaskDispatcher}. Builds above the limit are
+   * aborted when the maximum waiting time is over, the builds that started last are aborted first.
+   */
+  private void reduceCapacity(SlaveComputer c, MaintenanceWindow maintenance) {
+    String computerName = c.getName();
+    List<Executor> busy = new ArrayList<>();
+    for (Executor e : c.getExecutors()) {
+      if (e.isBusy()) {
+        busy.add(e);
+      }
+    }
+    int excess = busy.size() - maintenance.getRemainingExecutors();
+    if (excess <= 0 || maintenance.buildsHaveBeenAborted()) {
+      return;
+    }
+    if (maintenance.isKeepUpWhenActive() && !maintenance.isMaxWaitTimeFinished()) {
+      if (maintenance.markDraining()) {
+        MaintenanceListener.fire(l -> l.onDraining(computerName, maintenance));
+      }
+      return;
+    }
+    LOGGER.log(Level.INFO, "Aborting {0} builds on agent {1} as it runs with reduced capacity during maintenance",
+        new Object[] { excess, computerName });
+    busy.sort(Comparator.comparingLong(Executor::getElapsedTime));
+    abort(busy.subList(0, excess));
+    maintenance.setAborted(true);
+    MaintenanceListener.fire(l -> l.onBuildsAborted(computerName, maintenance));
+  }
+
   /** Descriptor for UI only. */
   @Extension
   @Symbol("agent-maintenance")
@@ -0,0 +1,107 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.scheduler.Hash;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Resolves the <code>H</code> tokens of a start time specification like Jenkins triggers do.
+ * <code>H</code> stands for a value of the field that is derived from a hash of the agent name, so that a
+ * specification shared by many agents starts at different times for each agent, but always at the same
+ * time for the same agent. Supported forms are <code>H</code>, <code>H/n</code>, <code>H(a-b)</code> and
+ * <code>H(a-b)/n</code>.
+ */
+@Restricted(NoExternalUse.class)
+final class CronHash {
+
+  private static final Pattern HASH = Pattern.compile("H(?:\\((\\d+)-(\\d+)\\))?(?:/(\\d+))?");
+
+  /*
+   * The ranges of the fields. The day of month is limited to 28 like in Jenkins, so that the day exists in every month.
+   */
+  private static final int[][] RANGES = { { 0, 59 }, { 0, 23 }, { 1, 28 }, { 1, 12 }, { 0, 6 } };
+  private static final int[][] LIMITS = { { 0, 59 }, { 0, 23 }, { 1, 31 }, { 1, 12 }, { 0, 7 } };
+  private static final String[] NAMES = { "minute", "hour", "day of month", "month", "day of week" };
+
+  private CronHash() {
+  }
+
+  /**
+   * Checks if a specification contains <code>H</code> tokens.
+   *
+   * @param spec The start time specification
+   * @return true when the specification is hashed
+   */
+  static boolean isHashed(@CheckForNull String spec) {
+    if (spec == null) {
+      return false;
+    }
+    for (String field : spec.trim().split("\\s+")) {
+      for (String item : field.split(",", -1)) {
+        if (HASH.matcher(item).matches()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Replaces the <code>H</code> tokens of a specification with values derived from the seed.
+   * Specifications without <code>H</code> or with an unexpected number of fields are returned unchanged.
+   *
+   * @param spec The start time specification
+   * @param seed The seed, usually the agent name. With <code>null</code> the first value of the range is used.
+   * @return The specification without <code>H</code> tokens
+   * @throws IllegalArgumentException When a <code>H</code> token is invalid
+   */
+  @NonNull
+  static String resolve(@NonNull String spec, @CheckForNull String seed) {
+    String[] fields = spec.trim().split("\\s+");
+    if (fields.length != RANGES.length || !isHashed(spec)) {
+      return spec;
+    }
+    Hash hash = seed != null ? Hash.from(seed) : Hash.zero();
+    StringBuilder resolved = new StringBuilder();
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0) {
+        resolved.append(' ');
+      }
+      String[] items = fields[i].split(",", -1);
+      for (int j = 0; j < items.length; j++) {
+        if (j > 0) {
+          resolved.append(',');
+        }
+        Matcher m = HASH.matcher(items[j]);
+        resolved.append(m.matches() ? resolveItem(m, i, hash) : items[j]);
+      }
+    }
+    return resolved.toString();
+  }
+
+  private static String resolveItem(Matcher m, int field, Hash hash) {
+    int low = RANGES[field][0];
+    int high = RANGES[field][1];
+    if (m.group(1) != null) {
+      low = Integer.parseInt(m.group(1));
+      high = Integer.parseInt(m.group(2));
+      if (low > high || low < LIMITS[field][0] || high > LIMITS[field][1]) {
+        throw new IllegalArgumentException("Invalid range H(" + low + "-" + high + ") for " + NAMES[field]
+            + ", allowed is " + LIMITS[field][0] + "-" + LIMITS[field][1]);
+      }
+    }
+    int size = high - low + 1;
+    if (m.group(3) == null) {
+      return Integer.toString(low + hash.next(size));
+    }
+    int step = Integer.parseInt(m.group(3));
+    if (step < 1) {
+      throw new IllegalArgumentException("Invalid step " + step + " for " + NAMES[field]);
+    }
+    return (low + hash.next(Math.min(step, size))) + "-" + high + "/" + step;
+  }
+}
@@ -0,0 +1,159 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Computes for each agent how long before a maintenance window it should stop accepting new tasks, so that it is
+ * usually idle when the maintenance window starts.
+ * The durations of the most recent tasks of each agent are kept in memory, the lead time is the configured
+ * percentile of these durations. The history starts empty after a restart.
+ */
+@Restricted(NoExternalUse.class)
+public final class DrainLeadTime {
+
+  /*
+   * Enables that agents stop accepting tasks the computed lead time before a maintenance window starts.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to enable the lead time
+  @Restricted(NoExternalUse.class)
+  public static boolean ENABLED = Boolean.getBoolean(DrainLeadTime.class.getName() + ".ENABLED");
+
+  /*
+   * The percentile of the task durations used as lead time.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to set the percentile
+  @Restricted(NoExternalUse.class)
+  public static int PERCENTILE = Integer.getInteger(DrainLeadTime.class.getName() + ".PERCENTILE", 90);
+
+  /*
+   * The number of recent task durations that are kept per agent.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to set the history size
+  @Restricted(NoExternalUse.class)
+  public static int HISTORY_SIZE = Integer.getInteger(DrainLeadTime.class.getName() + ".HISTORY_SIZE", 100);
+
+  /*
+   * The minimum number of task durations needed before a lead time is computed.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to set the minimum history
+  @Restricted(NoExternalUse.class)
+  public static int MIN_SAMPLES = Integer.getInteger(DrainLeadTime.class.getName() + ".MIN_SAMPLES", 5);
+
+  /*
+   * The maximum lead time in minutes.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to set the maximum lead time
+  @Restricted(NoExternalUse.class)
+  public static int MAX_LEAD_MINUTES = Integer.getInteger(DrainLeadTime.class.getName() + ".MAX_LEAD_MINUTES", 240);
+
+  private static final DrainLeadTime INSTANCE = new DrainLeadTime();
+
+  private final Map<String, History> histories = new ConcurrentHashMap<>();
+
+  DrainLeadTime() {
+  }
+
+  public static DrainLeadTime get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Records the duration of a task that ran on an agent.
+   *
+   * @param computerName Name of the agent
+   * @param durationMillis Duration of the task in milliseconds
+   */
+  void record(@NonNull String computerName, long durationMillis) {
+    if (durationMillis > 0) {
+      histories.computeIfAbsent(computerName, n -> new History(HISTORY_SIZE)).add(durationMillis);
+    }
+  }
+
+  /**
+   * Returns the lead time of an agent.
+   *
+   * @param computerName Name of the agent
+   * @return The lead time or <code>null</code> when not enough tasks ran on the agent
+   */
+  @CheckForNull
+  public Duration getLeadTime(@NonNull String computerName) {
+    History history = histories.get(computerName);
+    if (history == null) {
+      return null;
+    }
+    long millis = history.percentile(PERCENTILE, MIN_SAMPLES);
+    if (millis < 0) {
+      return null;
+    }
+    return Duration.ofMillis(Math.min(millis, Duration.ofMinutes(MAX_LEAD_MINUTES).toMillis()));
+  }
+
+  /**
+   * Returns whether an agent should no longer accept tasks because its next maintenance window starts within the
+   * lead time. The start of the next maintenance window is taken from the index without loading any definitions, as
+   * this is called under the queue lock.
+   *
+   * @param computerName Name of the agent
+   * @return true when the agent should drain
+   */
+  boolean isDraining(@NonNull String computerName) {
+    if (!ENABLED) {
+      return false;
+    }
+    Duration leadTime = getLeadTime(computerName);
+    if (leadTime == null) {
+      return false;
+    }
+    LocalDateTime nextStart = MaintenanceHelper.getInstance().getNextMaintenanceStart(computerName);
+    return nextStart != null && LocalDateTime.now().plus(leadTime).isAfter(nextStart);
+  }
+
+  void remove(@NonNull String computerName) {
+    histories.remove(computerName);
+  }
+
+  void rename(@NonNull String oldName, @NonNull String newName) {
+    History history = histories.remove(oldName);
+    if (history != null) {
+      histories.put(newName, history);
+    }
+  }
+
+  /**
+   * Ring buffer of the most recent task durations.
+   */
+  private static final class History {
+    private final long[] durations;
+    private int next;
+    private int size;
+
+    History(int capacity) {
+      durations = new long[Math.max(1, capacity)];
+    }
+
+    synchronized void add(long duration) {
+      durations[next] = duration;
+      next = (next + 1) % durations.length;
+      size = Math.min(size + 1, durations.length);
+    }
+
+    synchronized long percentile(int percentile, int minSamples) {
+      if (size == 0 || size < minSamples) {
+        return -1;
+      }
+      long[] sorted = Arrays.copyOf(durations, size);
+      Arrays.sort(sorted);
+      int rank = (int) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100.0 * size);
+      return sorted[Math.max(0, rank - 1)];
+    }
+  }
+}
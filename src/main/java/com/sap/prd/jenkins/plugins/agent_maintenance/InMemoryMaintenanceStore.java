@@ -0,0 +1,54 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Keeps the maintenance definitions only in memory, they are lost on restart.
+ * Meant for tests and for measuring the overhead of the persistent stores.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class InMemoryMaintenanceStore extends MaintenanceStore {
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicLong modifications = new AtomicLong();
+
+  @Override
+  @CheckForNull
+  public MaintenanceDefinitions load(@NonNull String computerName) {
+    Entry entry = entries.get(computerName);
+    return entry != null ? copy(entry.md) : null;
+  }
+
+  @Override
+  public void save(@NonNull String computerName, @NonNull MaintenanceDefinitions md) {
+    // the caller keeps modifying its instance, so store a copy like a persistent store would
+    entries.put(computerName, new Entry(copy(md), modifications.incrementAndGet()));
+  }
+
+  @Override
+  public void delete(@NonNull String computerName) {
+    entries.remove(computerName);
+  }
+
+  @Override
+  public long getLastModified(@NonNull String computerName) {
+    Entry entry = entries.get(computerName);
+    return entry != null ? entry.lastModified : 0;
+  }
+
+  private static MaintenanceDefinitions copy(MaintenanceDefinitions md) {
+    return new MaintenanceDefinitions(new TreeSet<>(md.getScheduled()), new HashSet<>(md.getRecurring()));
+  }
+
+  private record Entry(MaintenanceDefinitions md, long lastModified) {
+  }
+}
@@ -0,0 +1,229 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A set of maintenance windows that additionally indexes the windows by their id.
+ * The index is updated on every modification, including removals through the iterator.
+ * Lookups by id don't need the lock of the definitions.
+ *
+ * @param <T> The type of the windows
+ */
+class IndexedWindowSet<T> extends AbstractSet<T> {
+  private static final IndexedWindowSet<RecurringMaintenanceWindow> EMPTY_RECURRING =
+      new IndexedWindowSet<>(new HashMap<>(), RecurringMaintenanceWindow::getId, false);
+
+  /*
+   * Maps each window to itself, so that removing an equal window tells which instance was removed.
+   */
+  final Map<T, T> elements;
+  private final Map<String, T> byId = new ConcurrentHashMap<>();
+  private final Function<T, String> idFunction;
+  private final boolean modifiable;
+
+  IndexedWindowSet(Map<T, T> elements, Function<T, String> idFunction, boolean modifiable) {
+    this.elements = elements;
+    this.idFunction = idFunction;
+    this.modifiable = modifiable;
+  }
+
+  /**
+   * Creates an indexed set for recurring maintenance windows.
+   *
+   * @param windows The initial windows
+   * @return The set
+   */
+  static IndexedWindowSet<RecurringMaintenanceWindow> recurring(Collection<RecurringMaintenanceWindow> windows) {
+    IndexedWindowSet<RecurringMaintenanceWindow> set = new IndexedWindowSet<>(new HashMap<>(), RecurringMaintenanceWindow::getId, true);
+    set.addAll(windows);
+    return set;
+  }
+
+  /**
+   * Returns a shared empty set for recurring maintenance windows that can't be modified.
+   *
+   * @return The empty set
+   */
+  static IndexedWindowSet<RecurringMaintenanceWindow> emptyRecurring() {
+    return EMPTY_RECURRING;
+  }
+
+  /**
+   * Returns the window with the given id.
+   *
+   * @param id The id
+   * @return The window or <code>null</code> if there is none
+   */
+  @CheckForNull
+  T get(String id) {
+    return id != null ? byId.get(id) : null;
+  }
+
+  /**
+   * Removes the window with the given id.
+   *
+   * @param id The id
+   * @return The removed window or <code>null</code> if there was none
+   */
+  @CheckForNull
+  T removeById(String id) {
+    T t = get(id);
+    if (t != null) {
+      remove(t);
+    }
+    return t;
+  }
+
+  private void checkModifiable() {
+    if (!modifiable) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  @Override
+  public int size() {
+    return elements.size();
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return elements.containsKey(o);
+  }
+
+  @Override
+  public boolean add(T t) {
+    checkModifiable();
+    if (elements.containsKey(t)) {
+      return false;
+    }
+    elements.put(t, t);
+    byId.put(idFunction.apply(t), t);
+    return true;
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    checkModifiable();
+    T removed = elements.remove(o);
+    if (removed == null) {
+      return false;
+    }
+    byId.remove(idFunction.apply(removed), removed);
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    checkModifiable();
+    elements.clear();
+    byId.clear();
+  }
+
+  @Override
+  @NonNull
+  public Iterator<T> iterator() {
+    Iterator<T> iter = elements.keySet().iterator();
+    return new Iterator<>() {
+      private T last;
+
+      @Override
+      public boolean hasNext() {
+        return iter.hasNext();
+      }
+
+      @Override
+      public T next() {
+        last = iter.next();
+        return last;
+      }
+
+      @Override
+      public void remove() {
+        checkModifiable();
+        iter.remove();
+        byId.remove(idFunction.apply(last), last);
+      }
+    };
+  }
+
+  /**
+   * Sorted variant for scheduled maintenance windows. Views of a part of the set can't be modified.
+   */
+  static final class Sorted extends IndexedWindowSet<MaintenanceWindow> implements SortedSet<MaintenanceWindow> {
+    private static final Sorted EMPTY = new Sorted(false);
+
+    private Sorted(boolean modifiable) {
+      super(new TreeMap<>(), MaintenanceWindow::getId, modifiable);
+    }
+
+    /**
+     * Creates an indexed set for scheduled maintenance windows.
+     *
+     * @param windows The initial windows
+     * @return The set
+     */
+    static Sorted of(Collection<MaintenanceWindow> windows) {
+      Sorted set = new Sorted(true);
+      set.addAll(windows);
+      return set;
+    }
+
+    /**
+     * Returns a shared empty set that can't be modified.
+     *
+     * @return The empty set
+     */
+    static Sorted empty() {
+      return EMPTY;
+    }
+
+    private TreeMap<MaintenanceWindow, MaintenanceWindow> map() {
+      return (TreeMap<MaintenanceWindow, MaintenanceWindow>) elements;
+    }
+
+    @Override
+    public Comparator<? super MaintenanceWindow> comparator() {
+      return null;
+    }
+
+    @Override
+    @NonNull
+    public SortedSet<MaintenanceWindow> subSet(MaintenanceWindow fromElement, MaintenanceWindow toElement) {
+      return Collections.unmodifiableSortedSet(map().navigableKeySet().subSet(fromElement, true, toElement, false));
+    }
+
+    @Override
+    @NonNull
+    public SortedSet<MaintenanceWindow> headSet(MaintenanceWindow toElement) {
+      return Collections.unmodifiableSortedSet(map().navigableKeySet().headSet(toElement, false));
+    }
+
+    @Override
+    @NonNull
+    public SortedSet<MaintenanceWindow> tailSet(MaintenanceWindow fromElement) {
+      return Collections.unmodifiableSortedSet(map().navigableKeySet().tailSet(fromElement, true));
+    }
+
+    @Override
+    public MaintenanceWindow first() {
+      return map().firstKey();
+    }
+
+    @Override
+    public MaintenanceWindow last() {
+      return map().lastKey();
+    }
+  }
+}
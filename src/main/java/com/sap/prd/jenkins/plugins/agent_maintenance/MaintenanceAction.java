@@ -5,14 +5,16 @@ import static com.sap.prd.jenkins.plugins.agent_maintenance.MaintenanceWindow.DA
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Util;
 import hudson.model.Action;
+import hudson.model.Api;
 import hudson.model.Computer;
 import hudson.security.Permission;
 import hudson.slaves.SlaveComputer;
 import hudson.util.FormApply;
 import jakarta.servlet.ServletException;
 import java.io.IOException;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -28,9 +30,12 @@ import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.StaplerRequest2;
 import org.kohsuke.stapler.StaplerResponse2;
 import org.kohsuke.stapler.bind.JavaScriptMethod;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
 import org.kohsuke.stapler.verb.POST;
 
 /** Action to display link to maintenance window configuration. */
+@ExportedBean
 public class MaintenanceAction implements Action {
 
   private static final Logger LOGGER = Logger.getLogger(MaintenanceAction.class.getName());
@@ -48,7 +53,62 @@ public class MaintenanceAction implements Action {
   public Computer getComputer() {
     return computer;
   }
-  
+
+  @Exported
+  public String getComputerName() {
+    return computer.getName();
+  }
+
+  /**
+   * Remote API access. Unlike the action in the API of the agent, it includes the maintenance windows.
+   *
+   * @return The api object
+   */
+  public Api getApi() {
+    return new Api(new Details());
+  }
+
+  /**
+   * The start of the next maintenance window that has not yet started.
+   * Answered from the index, so the maintenance definitions are not loaded.
+   *
+   * @return the start time or <code>null</code> when there is no upcoming maintenance window
+   */
+  @Exported
+  public String getNextStart() {
+    if (!isVisible()) {
+      return null;
+    }
+    LocalDateTime nextStart = MaintenanceHelper.getInstance().getNextMaintenanceStart(computer.getName());
+    return nextStart != null ? DATE_FORMATTER.format(nextStart) : null;
+  }
+
+  /**
+   * The time in minutes before a maintenance window that the agent stops accepting new tasks,
+   * computed from the durations of the recent tasks of the agent.
+   *
+   * @return the lead time in minutes or <code>null</code> when not enough tasks ran on the agent
+   */
+  @Exported
+  public Long getDrainLeadTimeMinutes() {
+    if (!isVisible()) {
+      return null;
+    }
+    Duration leadTime = DrainLeadTime.get().getLeadTime(computer.getName());
+    return leadTime != null ? leadTime.toMinutes() : null;
+  }
+
+  /**
+   * Return whether there is an active maintenance window for the agent.
+   * Answered from the index, so the maintenance definitions are not loaded.
+   *
+   * @return true when the agent is in maintenance
+   */
+  @Exported
+  public boolean isInMaintenance() {
+    return isVisible() && MaintenanceHelper.getInstance().isInMaintenance(computer.getName());
+  }
+
 
   @Restricted(NoExternalUse.class)
   public boolean isVisible() {
@@ -154,6 +214,9 @@ public class MaintenanceAction implements Action {
    * @return A list of maintenance windows
    */
   public SortedSet<MaintenanceWindow> getMaintenanceWindows() {
+    if (!isVisible()) {
+      return Collections.emptySortedSet();
+    }
     try {
       return Collections.unmodifiableSortedSet(MaintenanceHelper.getInstance().getMaintenanceWindows(computer.getName()));
     } catch (IOException e) {
@@ -167,6 +230,9 @@ public class MaintenanceAction implements Action {
    * @return A list of recurring maintenance windows
    */
   public Set<RecurringMaintenanceWindow> getRecurringMaintenanceWindows() {
+    if (!isVisible()) {
+      return Collections.emptySet();
+    }
     try {
       return Collections.unmodifiableSet(MaintenanceHelper.getInstance().getRecurringMaintenanceWindows(computer.getName()));
     } catch (IOException e) {
@@ -218,16 +284,13 @@ public class MaintenanceAction implements Action {
   @JavaScriptMethod
   public String[] deleteMultiple(String[] ids) {
     computer.checkAnyPermission(CONFIGURE_AND_DISCONNECT);
-    List<String> deletedList = new ArrayList<>();
-    for (String id : ids) {
-      try {
-        MaintenanceHelper.getInstance().deleteMaintenanceWindow(computer.getName(), id);
-        deletedList.add(id);
-      } catch (Throwable e) {
-        LOGGER.log(Level.WARNING, "Error while deleting maintenance window", e);
-      }
+    try {
+      // windows that don't exist anymore count as deleted
+      return MaintenanceHelper.getInstance().deleteMaintenanceWindows(computer.getName(), Arrays.asList(ids)).keySet().toArray(new String[0]);
+    } catch (Throwable e) {
+      LOGGER.log(Level.WARNING, "Error while deleting maintenance windows", e);
+      return new String[0];
     }
-    return deletedList.toArray(new String[0]);
   }
 
   /**
@@ -260,16 +323,13 @@ public class MaintenanceAction implements Action {
   @JavaScriptMethod
   public String[] deleteMultipleRecurring(String[] ids) {
     computer.checkAnyPermission(CONFIGURE_AND_DISCONNECT);
-    List<String> deletedList = new ArrayList<>();
-    for (String id : ids) {
-      try {
-        MaintenanceHelper.getInstance().deleteRecurringMaintenanceWindow(computer.getName(), id);
-        deletedList.add(id);
-      } catch (Throwable e) {
-        LOGGER.log(Level.WARNING, "Error while deleting maintenance window", e);
-      }
+    try {
+      // windows that don't exist anymore count as deleted
+      return MaintenanceHelper.getInstance().deleteRecurringMaintenanceWindows(computer.getName(), Arrays.asList(ids)).keySet().toArray(new String[0]);
+    } catch (Throwable e) {
+      LOGGER.log(Level.WARNING, "Error while deleting maintenance windows", e);
+      return new String[0];
     }
-    return deletedList.toArray(new String[0]);
   }
 
   /**
@@ -325,7 +385,7 @@ public class MaintenanceAction implements Action {
    * @throws ServletException if an error occurs reading the form
    */
   @POST
-  public synchronized HttpResponse doConfigSubmit(StaplerRequest2 req) throws IOException, ServletException {
+  public HttpResponse doConfigSubmit(StaplerRequest2 req) throws IOException, ServletException {
     computer.checkPermission(Computer.CONFIGURE);
 
     JSONObject src = req.getSubmittedForm();
@@ -334,16 +394,7 @@ public class MaintenanceAction implements Action {
     List<RecurringMaintenanceWindow> newRecurringTargets = req.bindJSONToList(RecurringMaintenanceWindow.class,
         src.get("recurringMaintenanceWindows"));
 
-    MaintenanceDefinitions md = MaintenanceHelper.getInstance().getMaintenanceDefinitions(computer.getName());
-    synchronized (md) {
-      SortedSet<MaintenanceWindow> scheduled = md.getScheduled();
-      Set<RecurringMaintenanceWindow> recurring = md.getRecurring();
-      scheduled.clear();
-      scheduled.addAll(newTargets);
-      recurring.clear();
-      recurring.addAll(newRecurringTargets);
-      MaintenanceHelper.getInstance().saveMaintenanceWindows(computer.getName(), md);
-    }
+    MaintenanceHelper.getInstance().replaceMaintenanceDefinitions(computer.getName(), newTargets, newRecurringTargets);
     return FormApply.success(".");
   }
 
@@ -374,4 +425,43 @@ public class MaintenanceAction implements Action {
     MaintenanceHelper.getInstance().removeRetentionStrategy(computer);
     rsp.sendRedirect(".");
   }
+
+  /**
+   * The action as exported by its own remote API. The maintenance windows are only exported here, so that the API of
+   * the agents doesn't load the maintenance definitions of every agent.
+   */
+  @ExportedBean
+  @Restricted(NoExternalUse.class)
+  public class Details {
+
+    @Exported
+    public String getComputerName() {
+      return MaintenanceAction.this.getComputerName();
+    }
+
+    @Exported
+    public String getNextStart() {
+      return MaintenanceAction.this.getNextStart();
+    }
+
+    @Exported
+    public Long getDrainLeadTimeMinutes() {
+      return MaintenanceAction.this.getDrainLeadTimeMinutes();
+    }
+
+    @Exported
+    public boolean isInMaintenance() {
+      return MaintenanceAction.this.isInMaintenance();
+    }
+
+    @Exported
+    public SortedSet<MaintenanceWindow> getMaintenanceWindows() {
+      return MaintenanceAction.this.getMaintenanceWindows();
+    }
+
+    @Exported
+    public Set<RecurringMaintenanceWindow> getRecurringMaintenanceWindows() {
+      return MaintenanceAction.this.getRecurringMaintenanceWindows();
+    }
+  }
 }
@@ -0,0 +1,37 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import java.util.concurrent.TimeUnit;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Regularly drops cached maintenance definitions of agents that have no maintenance windows and were not used
+ * for a while. On controllers where agents come and go, this keeps the cache from growing. Agents that left
+ * maintenance without being checked are released from the {@link MaintenanceConcurrency} as well.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class MaintenanceCacheEviction extends PeriodicWork {
+
+  /*
+   * The interval in minutes between two eviction runs. Definitions are dropped when they were not used
+   * during a full interval.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to set the eviction interval
+  @Restricted(NoExternalUse.class)
+  public static int INTERVAL_MINUTES = Integer.getInteger(MaintenanceCacheEviction.class.getName() + ".INTERVAL_MINUTES", 10);
+
+  @Override
+  public long getRecurrencePeriod() {
+    return TimeUnit.MINUTES.toMillis(INTERVAL_MINUTES);
+  }
+
+  @Override
+  protected void doRun() throws Exception {
+    MaintenanceHelper.getInstance().evictUnusedDefinitions();
+    MaintenanceConcurrency.get().prune();
+  }
+}
@@ -0,0 +1,198 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Node;
+import hudson.slaves.SlaveComputer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Decides whether an agent with an active maintenance window may enter maintenance, based on the
+ * {@link MaintenanceConcurrencyLimit}s of the global configuration.
+ * Agents that have to wait are admitted in the order their maintenance windows started. For each limit, the agents
+ * that wait longer are counted as if they were in maintenance, so an agent only overtakes them when the limit has room
+ * for all of them. An agent that waits for a different limit doesn't hold back the others.
+ * Agents are released when they are checked without an active maintenance window or are deleted, agents that were
+ * missed are removed regularly by {@link MaintenanceCacheEviction}. The state is kept in memory, agents that are
+ * offline for maintenance are admitted again after a restart.
+ *
+ * <p>A check only looks at the agents that are in maintenance or wait, not at all agents of a label, unless the limit
+ * is a percentage of the executors.
+ */
+@Restricted(NoExternalUse.class)
+public final class MaintenanceConcurrency {
+
+  private static final Logger LOGGER = Logger.getLogger(MaintenanceConcurrency.class.getName());
+
+  private static final MaintenanceConcurrency INSTANCE = new MaintenanceConcurrency();
+
+  private static final Comparator<Waiting> ORDER = Comparator.comparing(Waiting::start).thenComparingLong(Waiting::sequence);
+
+  private final Set<String> admitted = new HashSet<>();
+  private final Map<String, Waiting> waiting = new ConcurrentHashMap<>();
+  private long sequence;
+
+  MaintenanceConcurrency() {
+  }
+
+  public static MaintenanceConcurrency get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Checks whether an agent with an active maintenance window may enter maintenance.
+   * When the agent has to wait, it is queued. When it is admitted after waiting, the maximum waiting time for
+   * running builds starts at that moment.
+   *
+   * @param c The agent
+   * @param maintenance The active maintenance window
+   * @return true when the agent may enter maintenance
+   */
+  synchronized boolean admit(@NonNull SlaveComputer c, @NonNull MaintenanceWindow maintenance) {
+    String computerName = c.getName();
+    if (admitted.contains(computerName)) {
+      return true;
+    }
+    Node node = c.getNode();
+    List<MaintenanceConcurrencyLimit> limits = getLimits(node);
+    if (limits.isEmpty() || c.getOfflineCause() instanceof MaintenanceOfflineCause) {
+      waiting.remove(computerName);
+      admitted.add(computerName);
+      return true;
+    }
+    Waiting self = waiting.get(computerName);
+    boolean waited = self != null;
+    if (!waited) {
+      self = new Waiting(maintenance.getStartDateTime(), sequence++);
+      waiting.put(computerName, self);
+    }
+    for (MaintenanceConcurrencyLimit limit : limits) {
+      List<Node> inMaintenance = new ArrayList<>();
+      for (String name : admitted) {
+        Node agent = Jenkins.get().getNode(name);
+        if (agent != null && limit.appliesTo(agent)) {
+          inMaintenance.add(agent);
+        }
+      }
+      // agents of this limit that wait longer are served first, so they are counted as if they were in maintenance
+      for (Map.Entry<String, Waiting> other : waiting.entrySet()) {
+        if (ORDER.compare(other.getValue(), self) < 0) {
+          Node agent = Jenkins.get().getNode(other.getKey());
+          if (agent != null && limit.appliesTo(agent)) {
+            inMaintenance.add(agent);
+          }
+        }
+      }
+      List<Node> agents = limit.getMaxExecutorsPercent() > 0 ? limit.getAgents() : List.of();
+      if (!limit.allows(agents, inMaintenance, node)) {
+        return deferred(computerName, limit);
+      }
+    }
+    waiting.remove(computerName);
+    admitted.add(computerName);
+    if (waited) {
+      maintenance.setDeferredStart(LocalDateTime.now());
+      LOGGER.log(Level.INFO, "Agent {0} enters maintenance after waiting for other agents", computerName);
+    }
+    return true;
+  }
+
+  private boolean deferred(String computerName, MaintenanceConcurrencyLimit limit) {
+    LOGGER.log(Level.FINE, "Deferring maintenance of agent {0} because of the limit for label {1}",
+        new Object[] { computerName, limit.getLabel() });
+    return false;
+  }
+
+  /**
+   * Removes agents that no longer have an active maintenance window but were not checked since,
+   * e.g. because the retention strategy was removed. Called regularly outside of the queue lock.
+   * The state is taken from the index without holding the lock, the lock is only taken to copy and remove the names.
+   */
+  void prune() {
+    List<String> names;
+    synchronized (this) {
+      names = new ArrayList<>(admitted);
+      names.addAll(waiting.keySet());
+    }
+    MaintenanceHelper helper = MaintenanceHelper.getInstance();
+    List<String> stale = new ArrayList<>();
+    for (String name : names) {
+      if (!isInMaintenance(helper, name)) {
+        stale.add(name);
+      }
+    }
+    if (stale.isEmpty()) {
+      return;
+    }
+    synchronized (this) {
+      stale.forEach(admitted::remove);
+      waiting.keySet().removeAll(stale);
+    }
+  }
+
+  private static boolean isInMaintenance(MaintenanceHelper helper, String computerName) {
+    if (!(Jenkins.get().getComputer(computerName) instanceof SlaveComputer c)
+        || !(c.getRetentionStrategy() instanceof AgentMaintenanceRetentionStrategy)) {
+      return false;
+    }
+    return helper.isInMaintenance(computerName) && helper.getRemainingExecutors(computerName) == 0;
+  }
+
+  private static List<MaintenanceConcurrencyLimit> getLimits(Node node) {
+    List<MaintenanceConcurrencyLimit> limits = new ArrayList<>();
+    MaintenanceConfiguration config = MaintenanceConfiguration.getInstance();
+    if (node == null || config == null) {
+      return limits;
+    }
+    for (MaintenanceConcurrencyLimit limit : config.getConcurrencyLimits()) {
+      if (limit.appliesTo(node)) {
+        limits.add(limit);
+      }
+    }
+    return limits;
+  }
+
+  /**
+   * Called when an agent has no active maintenance window that takes it offline.
+   *
+   * @param computerName Name of the agent
+   */
+  synchronized void release(@NonNull String computerName) {
+    admitted.remove(computerName);
+    waiting.remove(computerName);
+  }
+
+  /**
+   * Returns whether the maintenance of an agent is deferred because of a concurrency limit.
+   *
+   * @param computerName Name of the agent
+   * @return true when the agent waits for other agents to leave maintenance
+   */
+  public boolean isDeferred(@NonNull String computerName) {
+    return waiting.containsKey(computerName);
+  }
+
+  synchronized void rename(@NonNull String oldName, @NonNull String newName) {
+    if (admitted.remove(oldName)) {
+      admitted.add(newName);
+    }
+    Waiting w = waiting.remove(oldName);
+    if (w != null) {
+      waiting.put(newName, w);
+    }
+  }
+
+  private record Waiting(LocalDateTime start, long sequence) {
+  }
+}
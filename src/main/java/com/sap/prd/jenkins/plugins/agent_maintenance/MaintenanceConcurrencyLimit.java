@@ -0,0 +1,133 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Slave;
+import java.util.ArrayList;
+import java.util.List;
+import jenkins.model.Jenkins;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * Limits how many agents matching a label expression can be in maintenance at the same time.
+ * Maintenance windows above the limit are deferred until other agents of the label leave maintenance.
+ */
+public class MaintenanceConcurrencyLimit extends AbstractDescribableImpl<MaintenanceConcurrencyLimit> {
+  private final String label;
+  private int maxAgents;
+  private int maxExecutorsPercent;
+
+  @DataBoundConstructor
+  public MaintenanceConcurrencyLimit(String label) {
+    this.label = Util.fixEmptyAndTrim(label);
+  }
+
+  public String getLabel() {
+    return label;
+  }
+
+  public int getMaxAgents() {
+    return maxAgents;
+  }
+
+  /**
+   * Sets the maximum number of agents in maintenance at the same time.
+   *
+   * @param maxAgents The number of agents, 0 for no limit
+   */
+  @DataBoundSetter
+  public void setMaxAgents(int maxAgents) {
+    this.maxAgents = Math.max(0, maxAgents);
+  }
+
+  public int getMaxExecutorsPercent() {
+    return maxExecutorsPercent;
+  }
+
+  /**
+   * Sets the maximum percentage of the executors of the label that can be in maintenance at the same time.
+   *
+   * @param maxExecutorsPercent The percentage, 0 for no limit
+   */
+  @DataBoundSetter
+  public void setMaxExecutorsPercent(int maxExecutorsPercent) {
+    this.maxExecutorsPercent = Math.max(0, Math.min(100, maxExecutorsPercent));
+  }
+
+  boolean appliesTo(@NonNull Node node) {
+    if (label == null) {
+      return false;
+    }
+    Label l = Jenkins.get().getLabel(label);
+    return l != null && l.contains(node);
+  }
+
+  /**
+   * Returns the agents matching the label.
+   *
+   * @return List of agents
+   */
+  @NonNull
+  List<Node> getAgents() {
+    List<Node> agents = new ArrayList<>();
+    Label l = label != null ? Jenkins.get().getLabel(label) : null;
+    if (l != null) {
+      for (Node node : l.getNodes()) {
+        if (node instanceof Slave) {
+          agents.add(node);
+        }
+      }
+    }
+    return agents;
+  }
+
+  /**
+   * Checks whether one more agent can enter maintenance.
+   * When no agent of the label is in maintenance, the agent is always allowed, so that a single large agent
+   * doesn't wait forever.
+   *
+   * @param agents The agents of the label, only needed for a percentage of the executors
+   * @param inMaintenance The agents of the label that are in maintenance
+   * @param candidate The agent that wants to enter maintenance
+   * @return true when the agent may enter maintenance
+   */
+  boolean allows(@NonNull List<Node> agents, @NonNull List<Node> inMaintenance, @NonNull Node candidate) {
+    if (inMaintenance.isEmpty()) {
+      return true;
+    }
+    if (maxAgents > 0 && inMaintenance.size() + 1 > maxAgents) {
+      return false;
+    }
+    if (maxExecutorsPercent > 0) {
+      long total = 0;
+      for (Node node : agents) {
+        total += node.getNumExecutors();
+      }
+      long used = candidate.getNumExecutors();
+      for (Node node : inMaintenance) {
+        used += node.getNumExecutors();
+      }
+      return used * 100 <= total * maxExecutorsPercent;
+    }
+    return true;
+  }
+
+  /** Descriptor for Configuration as Code. */
+  @Extension
+  @Symbol("concurrencyLimit")
+  public static class DescriptorImpl extends Descriptor<MaintenanceConcurrencyLimit> {
+
+    @Override
+    @NonNull
+    public String getDisplayName() {
+      return "";
+    }
+  }
+}
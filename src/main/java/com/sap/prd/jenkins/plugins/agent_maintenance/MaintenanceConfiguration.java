@@ -1,10 +1,28 @@
 package com.sap.prd.jenkins.plugins.agent_maintenance;
 
+import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Computer;
 import hudson.model.Node;
 import hudson.model.Slave;
 import hudson.slaves.AbstractCloudSlave;
 import hudson.util.HttpResponses;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import jenkins.model.GlobalConfiguration;
 import jenkins.model.Jenkins;
 import org.jenkinsci.Symbol;
@@ -17,7 +35,21 @@ import org.kohsuke.stapler.verb.POST;
 @Extension
 @Symbol("agent-maintenance")
 public class MaintenanceConfiguration extends GlobalConfiguration {
+  private static final Logger LOGGER = Logger.getLogger(MaintenanceConfiguration.class.getName());
+
   private boolean injectRetentionStrategy;
+  private List<MaintenanceSchedule> schedules = new ArrayList<>();
+  private List<MaintenanceConcurrencyLimit> concurrencyLimits = new ArrayList<>();
+  /*
+   * The ids of the maintenance windows that were applied from the schedules, by agent name.
+   * Windows that are no longer wanted are removed by these ids, so that agents that left a label lose its windows.
+   */
+  private Map<String, Set<String>> appliedWindows;
+  /*
+   * The schedules that were active before the current schedules were set during startup.
+   * They are applied once all agents are loaded.
+   */
+  private transient List<MaintenanceSchedule> pendingPrevious;
 
   @DataBoundConstructor
   public MaintenanceConfiguration() {
@@ -33,6 +65,172 @@ public class MaintenanceConfiguration extends GlobalConfiguration {
     return injectRetentionStrategy;
   }
 
+  @NonNull
+  public List<MaintenanceSchedule> getSchedules() {
+    return schedules != null ? schedules : new ArrayList<>();
+  }
+
+  /**
+   * Sets the maintenance schedules and applies them to the agents.
+   * Only the difference to the previously applied windows is applied, so that maintenance windows added
+   * in the UI are kept and agents whose maintenance windows don't change are not written.
+   *
+   * @param schedules The maintenance schedules
+   */
+  public synchronized void setSchedules(List<MaintenanceSchedule> schedules) {
+    List<MaintenanceSchedule> previous = getSchedules();
+    this.schedules = schedules != null ? new ArrayList<>(schedules) : new ArrayList<>();
+    save();
+    if (Jenkins.get().getInitLevel().compareTo(InitMilestone.JOB_CONFIG_ADAPTED) < 0) {
+      if (pendingPrevious == null) {
+        pendingPrevious = previous;
+      }
+    } else {
+      applySchedules(previous, this.schedules);
+    }
+  }
+
+  @NonNull
+  public List<MaintenanceConcurrencyLimit> getConcurrencyLimits() {
+    return concurrencyLimits != null ? concurrencyLimits : new ArrayList<>();
+  }
+
+  /**
+   * Sets the limits for the number of agents of a label that are in maintenance at the same time.
+   *
+   * @param concurrencyLimits The limits
+   */
+  public synchronized void setConcurrencyLimits(List<MaintenanceConcurrencyLimit> concurrencyLimits) {
+    this.concurrencyLimits = concurrencyLimits != null ? new ArrayList<>(concurrencyLimits) : new ArrayList<>();
+    save();
+  }
+
+  /**
+   * Applies schedules that were set before all agents were loaded.
+   */
+  @Initializer(after = InitMilestone.JOB_CONFIG_ADAPTED)
+  public static void applyPendingSchedules() {
+    MaintenanceConfiguration config = getInstance();
+    if (config != null) {
+      synchronized (config) {
+        if (config.pendingPrevious != null) {
+          config.applySchedules(config.pendingPrevious, config.getSchedules());
+          config.pendingPrevious = null;
+        }
+      }
+    }
+  }
+
+  private void applySchedules(List<MaintenanceSchedule> previous, List<MaintenanceSchedule> current) {
+    Map<String, MaintenanceDefinitions> wanted = new HashMap<>();
+    for (MaintenanceSchedule schedule : current) {
+      schedule.addTo(wanted);
+    }
+    if (appliedWindows == null) {
+      // the applied windows were not recorded yet, derive them from the previous schedules
+      Map<String, MaintenanceDefinitions> applied = new HashMap<>();
+      for (MaintenanceSchedule schedule : previous) {
+        schedule.addTo(applied);
+      }
+      appliedWindows = new HashMap<>();
+      applied.forEach((computerName, md) -> appliedWindows.put(computerName, getIds(md)));
+    }
+    Set<String> computerNames = new HashSet<>(wanted.keySet());
+    computerNames.addAll(appliedWindows.keySet());
+    int changed = 0;
+    for (String computerName : computerNames) {
+      if (apply(computerName, wanted.get(computerName))) {
+        changed++;
+      }
+    }
+    save();
+    LOGGER.log(Level.INFO, "Applied maintenance schedules, maintenance windows of {0} of {1} agents changed",
+        new Object[] { changed, computerNames.size() });
+  }
+
+  /**
+   * Applies the schedules to a single agent, e.g. when it was created or its labels changed.
+   *
+   * @param node The agent
+   */
+  public synchronized void applySchedules(@NonNull Node node) {
+    if (pendingPrevious != null || Jenkins.get().getInitLevel().compareTo(InitMilestone.JOB_CONFIG_ADAPTED) < 0) {
+      return;
+    }
+    String computerName = node.getNodeName();
+    boolean applied = appliedWindows != null && appliedWindows.containsKey(computerName);
+    MaintenanceDefinitions md = new MaintenanceDefinitions(new TreeSet<>(), new HashSet<>());
+    for (MaintenanceSchedule schedule : getSchedules()) {
+      if (schedule.appliesTo(node)) {
+        schedule.addTo(computerName, md);
+      }
+    }
+    if (!applied && md.isEmpty()) {
+      return;
+    }
+    if (appliedWindows == null) {
+      appliedWindows = new HashMap<>();
+    }
+    Set<String> before = appliedWindows.get(computerName);
+    if (apply(computerName, md)) {
+      LOGGER.log(Level.INFO, "Applied maintenance schedules to agent {0}", computerName);
+    }
+    if (!Objects.equals(before, appliedWindows.get(computerName))) {
+      save();
+    }
+  }
+
+  /**
+   * Keeps track of agent renames. The windows of the old name are removed when the schedules are applied to the agent.
+   *
+   * @param oldName Old name of the agent
+   * @param newName New name of the agent
+   */
+  synchronized void renameAgent(@NonNull String oldName, @NonNull String newName) {
+    if (appliedWindows != null && appliedWindows.containsKey(oldName)) {
+      appliedWindows.put(newName, appliedWindows.remove(oldName));
+      save();
+    }
+  }
+
+  /*
+   * Merges the wanted windows into the definitions of the agent and removes the windows that were applied before
+   * but are no longer wanted. Returns whether the definitions changed.
+   */
+  private boolean apply(String computerName, MaintenanceDefinitions md) {
+    if (Jenkins.get().getNode(computerName) == null) {
+      appliedWindows.remove(computerName);
+      return false;
+    }
+    if (Jenkins.get().getComputer(computerName) == null) {
+      return false;
+    }
+    if (md == null) {
+      md = new MaintenanceDefinitions(new TreeSet<>(), new HashSet<>());
+    }
+    try {
+      boolean changed = MaintenanceHelper.getInstance()
+          .mergeMaintenanceDefinitions(computerName, md, appliedWindows.get(computerName), false).hasChanges();
+      Set<String> ids = getIds(md);
+      if (ids.isEmpty()) {
+        appliedWindows.remove(computerName);
+      } else {
+        appliedWindows.put(computerName, ids);
+      }
+      return changed;
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to apply maintenance schedules to agent " + computerName, e);
+      return false;
+    }
+  }
+
+  private static Set<String> getIds(MaintenanceDefinitions md) {
+    Set<String> ids = new TreeSet<>();
+    md.getScheduled().forEach(mw -> ids.add(mw.getId()));
+    md.getRecurring().forEach(rmw -> ids.add(rmw.getId()));
+    return ids;
+  }
+
   public static MaintenanceConfiguration getInstance() {
     return GlobalConfiguration.all().get(MaintenanceConfiguration.class);
   }
@@ -46,14 +244,7 @@ public class MaintenanceConfiguration extends GlobalConfiguration {
   @POST
   public HttpResponse doInject(StaplerResponse2 rsp) {
     Jenkins.get().checkPermission(Jenkins.ADMINISTER);
-    int counter = 0;
-    for (Node node : Jenkins.get().getNodes()) {
-      if (node instanceof Slave && !(node instanceof AbstractCloudSlave)) {
-        if (MaintenanceHelper.getInstance().injectRetentionStrategy(node.toComputer())) {
-          counter++;
-        }
-      }
-    }
+    int counter = forAllAgents(c -> MaintenanceHelper.getInstance().injectRetentionStrategy(c));
     String message = "<div>Injected maintenance strategy to " + counter + " agents</div>";
     return HttpResponses.literalHtml(message);
   }
@@ -67,15 +258,36 @@ public class MaintenanceConfiguration extends GlobalConfiguration {
   @POST
   public HttpResponse doRemove(StaplerResponse2 rsp) {
     Jenkins.get().checkPermission(Jenkins.ADMINISTER);
-    int counter = 0;
+    int counter = forAllAgents(c -> MaintenanceHelper.getInstance().removeRetentionStrategy(c));
+    String message = "<div>Removed maintenance strategy from " + counter + " agents</div>";
+    return HttpResponses.literalHtml(message);
+  }
+
+  /*
+   * Applies the change to all permanent agents. The agents are saved in parallel with MaintenanceSideEffects,
+   * the request waits until all agents are saved.
+   */
+  private static int forAllAgents(Predicate<Computer> change) {
+    List<Future<Boolean>> results = new ArrayList<>();
     for (Node node : Jenkins.get().getNodes()) {
       if (node instanceof Slave && !(node instanceof AbstractCloudSlave)) {
-        if (MaintenanceHelper.getInstance().removeRetentionStrategy(node.toComputer())) {
+        Computer c = node.toComputer();
+        results.add(MaintenanceSideEffects.submit(() -> change.test(c)));
+      }
+    }
+    int counter = 0;
+    for (Future<Boolean> result : results) {
+      try {
+        if (result.get()) {
           counter++;
         }
+      } catch (ExecutionException e) {
+        // logged by MaintenanceSideEffects
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
       }
     }
-    String message = "<div>Removed maintenance strategy from " + counter + " agents</div>";
-    return HttpResponses.literalHtml(message);
+    return counter;
   }
 }
@@ -1,22 +1,42 @@
 package com.sap.prd.jenkins.plugins.agent_maintenance;
 
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.TreeSet;
 
 /**
  * Container that holds the scheduled and recurring maintenance windows for an agent.
  */
 public class MaintenanceDefinitions {
-  private final SortedSet<MaintenanceWindow> scheduled;
-  private final Set<RecurringMaintenanceWindow> recurring;
 
   /**
-   * Create definitions container.
+   * Shared definitions without any maintenance window. Can't be modified.
+   */
+  public static final MaintenanceDefinitions EMPTY =
+      new MaintenanceDefinitions(IndexedWindowSet.Sorted.empty(), IndexedWindowSet.emptyRecurring());
+
+  private final IndexedWindowSet.Sorted scheduled;
+  private final IndexedWindowSet<RecurringMaintenanceWindow> recurring;
+
+  /**
+   * Create definitions container. The windows are copied into sets that index them by id.
    *
    * @param scheduled A set of scheduled maintenance windows
    * @param recurring A set of recurring maintenance windows
    */
   public MaintenanceDefinitions(SortedSet<MaintenanceWindow> scheduled, Set<RecurringMaintenanceWindow> recurring) {
+    this(IndexedWindowSet.Sorted.of(scheduled), IndexedWindowSet.recurring(recurring));
+  }
+
+  private MaintenanceDefinitions(IndexedWindowSet.Sorted scheduled, IndexedWindowSet<RecurringMaintenanceWindow> recurring) {
     this.scheduled = scheduled;
     this.recurring = recurring;
   }
@@ -38,4 +58,112 @@ public class MaintenanceDefinitions {
   public Set<RecurringMaintenanceWindow> getRecurring() {
     return recurring;
   }
+
+  /**
+   * Returns the scheduled maintenance window with the given id.
+   *
+   * @param id The id of the window
+   * @return The window or <code>null</code> if there is none
+   */
+  @CheckForNull
+  public MaintenanceWindow getScheduledWindow(String id) {
+    return scheduled.get(id);
+  }
+
+  /**
+   * Returns the recurring maintenance window with the given id.
+   *
+   * @param id The id of the window
+   * @return The window or <code>null</code> if there is none
+   */
+  @CheckForNull
+  public RecurringMaintenanceWindow getRecurringWindow(String id) {
+    return recurring.get(id);
+  }
+
+  /**
+   * Removes the scheduled maintenance window with the given id. The caller must hold the lock of the definitions.
+   *
+   * @param id The id of the window
+   * @return The removed window or <code>null</code> if there was none
+   */
+  @CheckForNull
+  public MaintenanceWindow removeScheduledWindow(String id) {
+    return scheduled.removeById(id);
+  }
+
+  /**
+   * Removes the recurring maintenance window with the given id. The caller must hold the lock of the definitions.
+   *
+   * @param id The id of the window
+   * @return The removed window or <code>null</code> if there was none
+   */
+  @CheckForNull
+  public RecurringMaintenanceWindow removeRecurringWindow(String id) {
+    return recurring.removeById(id);
+  }
+
+  /**
+   * Checks whether there are neither scheduled nor recurring maintenance windows.
+   *
+   * @return true when there are no maintenance windows
+   */
+  public boolean isEmpty() {
+    return scheduled.isEmpty() && recurring.isEmpty();
+  }
+
+  /**
+   * Converter for the maintenance definition files.
+   * Each window is written as a single element with attributes, so that reading a file needs neither
+   * reflection nor the nested collection elements of the default layout. Files written by older versions
+   * are detected by the missing version attribute and are still read.
+   */
+  public static final class ConverterImpl implements Converter {
+    static final String VERSION = "2";
+    static final String SCHEDULED = "window";
+    static final String RECURRING = "recurring-window";
+
+    @Override
+    public boolean canConvert(Class type) {
+      return type == MaintenanceDefinitions.class;
+    }
+
+    @Override
+    public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+      MaintenanceDefinitions md = (MaintenanceDefinitions) source;
+      writer.addAttribute("version", VERSION);
+      for (MaintenanceWindow mw : md.getScheduled()) {
+        writer.startNode(SCHEDULED);
+        MaintenanceWindow.ConverterImpl.write(writer, mw);
+        writer.endNode();
+      }
+      for (RecurringMaintenanceWindow rmw : md.getRecurring()) {
+        writer.startNode(RECURRING);
+        RecurringMaintenanceWindow.ConverterImpl.write(writer, rmw);
+        writer.endNode();
+      }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+      SortedSet<MaintenanceWindow> scheduled = new TreeSet<>();
+      Set<RecurringMaintenanceWindow> recurring = new HashSet<>();
+      while (reader.hasMoreChildren()) {
+        reader.moveDown();
+        switch (reader.getNodeName()) {
+          case SCHEDULED -> scheduled.add(MaintenanceWindow.ConverterImpl.read(reader));
+          case RECURRING -> recurring.add(RecurringMaintenanceWindow.ConverterImpl.read(reader));
+          // layout of older versions, the items are handled by the converters of the windows
+          case "scheduled" -> scheduled.addAll((Collection<MaintenanceWindow>) context.convertAnother(null, TreeSet.class));
+          case "recurring" -> recurring.addAll((Collection<RecurringMaintenanceWindow>) context.convertAnother(null, HashSet.class));
+          default -> {
+            // ignore unknown elements
+          }
+        }
+        reader.moveUp();
+      }
+      return new MaintenanceDefinitions(scheduled, recurring);
+    }
+  }
 }
@@ -0,0 +1,87 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * The changes that applying maintenance definitions causes on the definitions of an agent.
+ */
+@Restricted(NoExternalUse.class)
+public final class MaintenanceDiff {
+  private final List<String> added = new ArrayList<>();
+  private final List<String> updated = new ArrayList<>();
+  private final List<String> removed = new ArrayList<>();
+  private int unchanged;
+  private int skipped;
+
+  void added(String id) {
+    added.add(id);
+  }
+
+  void updated(String id) {
+    updated.add(id);
+  }
+
+  void removed(String id) {
+    removed.add(id);
+  }
+
+  void unchanged() {
+    unchanged++;
+  }
+
+  void skipped() {
+    skipped++;
+  }
+
+  /**
+   * Ids of maintenance windows that are new.
+   *
+   * @return List of ids
+   */
+  public List<String> getAdded() {
+    return added;
+  }
+
+  /**
+   * Ids of maintenance windows that replace an existing window with the same id.
+   *
+   * @return List of ids
+   */
+  public List<String> getUpdated() {
+    return updated;
+  }
+
+  /**
+   * Ids of maintenance windows that were removed.
+   *
+   * @return List of ids
+   */
+  public List<String> getRemoved() {
+    return removed;
+  }
+
+  /**
+   * Number of maintenance windows that already exist with the same content.
+   *
+   * @return number of unchanged windows
+   */
+  public int getUnchanged() {
+    return unchanged;
+  }
+
+  /**
+   * Number of maintenance windows that were ignored, e.g. because they are already over.
+   *
+   * @return number of skipped windows
+   */
+  public int getSkipped() {
+    return skipped;
+  }
+
+  public boolean hasChanges() {
+    return !added.isEmpty() || !updated.isEmpty() || !removed.isEmpty();
+  }
+}
@@ -0,0 +1,197 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.model.Queue;
+import hudson.slaves.SlaveComputer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Disconnects agents for maintenance from a central queue.
+ * When a maintenance window starts on many agents at the same time, the retention strategies of all agents would
+ * disconnect them within a few seconds. With the queue, at most {@link #PER_SECOND} agents are disconnected per second
+ * and at most {@link #MAX_CONCURRENT} disconnects are in progress at the same time. The agents of one second are
+ * disconnected while holding the queue lock once, in the background with {@link MaintenanceSideEffects}.
+ */
+@Restricted(NoExternalUse.class)
+public final class MaintenanceDisconnector {
+  private static final Logger LOGGER = Logger.getLogger(MaintenanceDisconnector.class.getName());
+
+  /*
+   * Enables that agents are disconnected from the queue instead of directly by the retention strategy.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to enable the queue
+  @Restricted(NoExternalUse.class)
+  public static boolean ENABLED = Boolean.getBoolean(MaintenanceDisconnector.class.getName() + ".ENABLED");
+
+  /*
+   * The maximum number of disconnects that are in progress at the same time.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to set the concurrency
+  @Restricted(NoExternalUse.class)
+  public static int MAX_CONCURRENT = Integer.getInteger(MaintenanceDisconnector.class.getName() + ".MAX_CONCURRENT", 10);
+
+  /*
+   * The maximum number of agents that are disconnected per second.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to set the rate
+  @Restricted(NoExternalUse.class)
+  public static int PER_SECOND = Integer.getInteger(MaintenanceDisconnector.class.getName() + ".PER_SECOND", 20);
+
+  static final LongAdder DISCONNECTED = new LongAdder();
+
+  private static final MaintenanceDisconnector INSTANCE = new MaintenanceDisconnector();
+
+  private final Set<String> pending = new LinkedHashSet<>();
+  private final Map<String, Future<?>> inProgress = new LinkedHashMap<>();
+  private final AtomicBoolean batchRunning = new AtomicBoolean();
+  private ScheduledFuture<?> task;
+
+  MaintenanceDisconnector() {
+  }
+
+  public static MaintenanceDisconnector get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Queues the disconnect of an agent. An agent that is already queued or being disconnected is not queued again.
+   *
+   * @param c The agent
+   * @return false when the queue is disabled and the caller has to disconnect the agent
+   */
+  boolean submit(@NonNull SlaveComputer c) {
+    if (!ENABLED) {
+      return false;
+    }
+    synchronized (this) {
+      String computerName = c.getName();
+      Future<?> running = inProgress.get(computerName);
+      if (running == null || running.isDone()) {
+        pending.add(computerName);
+      }
+      if (task == null) {
+        task = Timer.get().scheduleWithFixedDelay(this::scheduleNext, 0, 1, TimeUnit.SECONDS);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether the disconnect of an agent is queued or running.
+   *
+   * @param computerName Name of the agent
+   * @return true when the agent waits to be disconnected or is being disconnected
+   */
+  synchronized boolean isDisconnecting(@NonNull String computerName) {
+    Future<?> running = inProgress.get(computerName);
+    return pending.contains(computerName) || (running != null && !running.isDone());
+  }
+
+  /*
+   * Runs the next batch in the background unless the previous batch is still running.
+   */
+  private void scheduleNext() {
+    if (batchRunning.compareAndSet(false, true)) {
+      MaintenanceSideEffects.execute(() -> {
+        try {
+          disconnectNext();
+        } finally {
+          batchRunning.set(false);
+        }
+      });
+    }
+  }
+
+  /**
+   * Disconnects the next agents from the queue. Agents whose maintenance window is no longer active or that are
+   * already offline are skipped.
+   */
+  void disconnectNext() {
+    List<String> batch = new ArrayList<>();
+    synchronized (this) {
+      inProgress.values().removeIf(Future::isDone);
+      int count = Math.min(Math.max(1, PER_SECOND), Math.max(1, MAX_CONCURRENT) - inProgress.size());
+      Iterator<String> it = pending.iterator();
+      while (count > 0 && it.hasNext()) {
+        batch.add(it.next());
+        it.remove();
+        count--;
+      }
+      if (batch.isEmpty()) {
+        if (pending.isEmpty() && inProgress.isEmpty() && task != null) {
+          task.cancel(false);
+          task = null;
+        }
+        return;
+      }
+    }
+    // the maintenance windows are looked up before taking the queue lock, as this can read the definitions
+    Map<SlaveComputer, MaintenanceWindow> windows = new LinkedHashMap<>();
+    for (String computerName : batch) {
+      if (Jenkins.get().getComputer(computerName) instanceof SlaveComputer c && c.isOnline()) {
+        MaintenanceWindow active = MaintenanceHelper.getInstance().getMaintenance(computerName);
+        if (active != null && !active.isDegraded()) {
+          windows.put(c, active);
+        }
+      }
+    }
+    Map<String, Future<?>> started = new LinkedHashMap<>();
+    Map<String, MaintenanceWindow> disconnected = new LinkedHashMap<>();
+    Queue.withLock(() -> {
+      for (Map.Entry<SlaveComputer, MaintenanceWindow> entry : windows.entrySet()) {
+        SlaveComputer c = entry.getKey();
+        if (c.isOffline()) {
+          continue;
+        }
+        started.put(c.getName(), c.disconnect(entry.getValue().getOfflineCause(c.getName())));
+        disconnected.put(c.getName(), entry.getValue());
+      }
+    });
+    DISCONNECTED.add(disconnected.size());
+    disconnected.forEach((computerName, active) -> MaintenanceListener.fire(l -> l.onDisconnected(computerName, active)));
+    int remaining;
+    synchronized (this) {
+      inProgress.putAll(started);
+      remaining = pending.size();
+    }
+    LOGGER.log(Level.INFO, "Disconnected {0} agents for maintenance, {1} agents are waiting to be disconnected",
+        new Object[] { started.size(), remaining });
+  }
+
+  /**
+   * Returns the number of agents that wait to be disconnected.
+   *
+   * @return number of agents
+   */
+  public synchronized int getPendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * Returns the number of disconnects that are in progress.
+   *
+   * @return number of agents
+   */
+  public synchronized int getInProgressCount() {
+    inProgress.values().removeIf(Future::isDone);
+    return inProgress.size();
+  }
+}
@@ -0,0 +1,187 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.Node;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Watches the maintenance definition files of all agents and reloads them when they are changed outside of Jenkins,
+ * e.g. by GitOps tooling.
+ * Changes are collected and processed together after a short delay, so that a tool writing many files
+ * causes only one reload per agent.
+ */
+@Restricted(NoExternalUse.class)
+public final class MaintenanceFileWatcher implements Runnable {
+  private static final Logger LOGGER = Logger.getLogger(MaintenanceFileWatcher.class.getName());
+
+  /*
+   * Enables watching the maintenance definition files.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to enable the watcher
+  @Restricted(NoExternalUse.class)
+  public static boolean ENABLED = Boolean.getBoolean(MaintenanceFileWatcher.class.getName() + ".ENABLED");
+
+  /*
+   * The time in milliseconds to wait for further changes before reloading changed files.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to set the delay
+  @Restricted(NoExternalUse.class)
+  public static long DEBOUNCE_MILLIS = Long.getLong(MaintenanceFileWatcher.class.getName() + ".DEBOUNCE_MILLIS", 2000);
+
+  private static MaintenanceFileWatcher instance;
+
+  private final Path nodesDirectory;
+  private final WatchService watchService;
+  private final Set<String> changed = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean reloadScheduled = new AtomicBoolean();
+
+  private MaintenanceFileWatcher(Path nodesDirectory) throws IOException {
+    this.nodesDirectory = nodesDirectory;
+    this.watchService = nodesDirectory.getFileSystem().newWatchService();
+    nodesDirectory.register(watchService, ENTRY_CREATE, ENTRY_DELETE);
+    try (DirectoryStream<Path> dirs = Files.newDirectoryStream(nodesDirectory, Files::isDirectory)) {
+      for (Path dir : dirs) {
+        dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+      }
+    }
+  }
+
+  /**
+   * Starts the watcher when enabled.
+   */
+  @Initializer(after = InitMilestone.JOB_CONFIG_ADAPTED)
+  public static void init() {
+    if (ENABLED) {
+      start();
+    }
+  }
+
+  @Terminator
+  public static void shutdown() {
+    stop();
+  }
+
+  static synchronized void start() {
+    if (instance != null) {
+      return;
+    }
+    if (!(MaintenanceHelper.getInstance().getStore() instanceof XmlMaintenanceStore)) {
+      LOGGER.log(Level.WARNING, "Maintenance definitions are not stored in files, not watching for changes");
+      return;
+    }
+    try {
+      instance = new MaintenanceFileWatcher(XmlMaintenanceStore.getNodesDirectory().toPath());
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to watch maintenance definition files", e);
+      return;
+    }
+    Thread thread = new Thread(instance, "Agent maintenance file watcher");
+    thread.setDaemon(true);
+    thread.start();
+    LOGGER.log(Level.INFO, "Watching maintenance definition files for changes");
+  }
+
+  static synchronized void stop() {
+    if (instance != null) {
+      try {
+        instance.watchService.close();
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, "Failed to close watch service", e);
+      }
+      instance = null;
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (true) {
+        WatchKey key = watchService.take();
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == OVERFLOW) {
+            Jenkins j = Jenkins.getInstanceOrNull();
+            if (j != null) {
+              for (Node node : j.getNodes()) {
+                changed.add(node.getNodeName());
+              }
+            }
+            continue;
+          }
+          Path child = dir.resolve((Path) event.context());
+          if (dir.equals(nodesDirectory)) {
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+              register(child);
+              changed.add(child.getFileName().toString());
+            }
+          } else if (XmlMaintenanceStore.MAINTENANCE_FILE_NAME.equals(child.getFileName().toString())) {
+            changed.add(dir.getFileName().toString());
+          }
+        }
+        key.reset();
+        scheduleReload();
+      }
+    } catch (ClosedWatchServiceException e) {
+      LOGGER.log(Level.FINE, "Stopped watching maintenance definition files");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void register(Path dir) {
+    try {
+      dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to watch maintenance definition file in " + dir, e);
+    }
+  }
+
+  private void scheduleReload() {
+    if (!changed.isEmpty() && reloadScheduled.compareAndSet(false, true)) {
+      Timer.get().schedule(this::reload, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void reload() {
+    reloadScheduled.set(false);
+    MaintenanceHelper helper = MaintenanceHelper.getInstance();
+    int reloaded = 0;
+    Iterator<String> iter = changed.iterator();
+    while (iter.hasNext()) {
+      String computerName = iter.next();
+      iter.remove();
+      if (helper.reloadMaintenanceDefinitions(computerName)) {
+        reloaded++;
+      }
+    }
+    LOGGER.log(Level.FINE, "Reloaded maintenance definitions of {0} agents", reloaded);
+    // changes that arrived while reloading
+    scheduleReload();
+  }
+}
@@ -3,27 +3,39 @@ package com.sap.prd.jenkins.plugins.agent_maintenance;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
 import hudson.model.Computer;
+import hudson.model.Node;
 import hudson.model.Slave;
 import hudson.slaves.RetentionStrategy;
 import hudson.slaves.SlaveComputer;
 import java.io.File;
 import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.Optional;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
@@ -32,10 +44,38 @@ import org.kohsuke.accmod.restrictions.NoExternalUse;
 public class MaintenanceHelper {
   private static final Logger LOGGER = Logger.getLogger(MaintenanceHelper.class.getName());
 
+  /*
+   * Delay in seconds after which changes to the index are persisted.
+   */
+  private static final int INDEX_SAVE_DELAY_SECONDS = 10;
+
   private static final MaintenanceHelper INSTANCE = new MaintenanceHelper();
 
   private final Map<String, MaintenanceDefinitions> cache = new ConcurrentHashMap<>();
 
+  /*
+   * Agents that are known to have no maintenance definitions. They are not kept in the cache.
+   */
+  private final Set<String> emptyAgents = ConcurrentHashMap.newKeySet();
+
+  /*
+   * Agents whose cached definitions were accessed since the last eviction run.
+   */
+  private final Set<String> accessed = ConcurrentHashMap.newKeySet();
+
+  private final MaintenanceIndex index = new MaintenanceIndex();
+
+  private final AtomicBoolean indexSaveScheduled = new AtomicBoolean();
+
+  private volatile boolean indexLoaded;
+
+  private volatile MaintenanceStore store;
+
+  /*
+   * Modification stamps of the definitions written by this helper, used to ignore our own changes when reloading.
+   */
+  private final Map<String, Long> writtenLastModified = new ConcurrentHashMap<>();
+
   private MaintenanceHelper() {
   }
 
@@ -63,6 +103,9 @@ public class MaintenanceHelper {
    * @return true if id is a valid UUID
    */
   private boolean isValidUuid(String id) {
+    if (id == null) {
+      return false;
+    }
     try {
       UUID.fromString(id);
       return true;
@@ -83,8 +126,31 @@ public class MaintenanceHelper {
     return computer != null ? computerName : "unknown";
   }
 
+  /**
+   * Return whether there are maintenance windows defined for a computer.
+   * Once the index is available, this doesn't need to load the maintenance definitions.
+   *
+   * @param computerName The computer to check
+   * @return true when the given computer has maintenance windows
+   * @throws IOException when reading the xml failed
+   */
   public boolean hasMaintenanceWindows(String computerName) throws IOException {
-    return cache.containsKey(computerName) && !getMaintenanceWindows(computerName).isEmpty();
+    if (!indexLoaded) {
+      return cache.containsKey(computerName) && !getMaintenanceWindows(computerName).isEmpty();
+    }
+    MaintenanceSummary summary = index.getSummary(computerName);
+    return summary != null && summary.getWindowCount() > 0;
+  }
+
+  /**
+   * Returns the summary of the maintenance definitions of an agent.
+   *
+   * @param computerName Name of the agent
+   * @return The summary or <code>null</code> if the agent has no maintenance definitions
+   */
+  @CheckForNull
+  public MaintenanceSummary getSummary(String computerName) {
+    return index.getSummary(computerName);
   }
 
   /**
@@ -95,12 +161,12 @@ public class MaintenanceHelper {
    * @throws IOException when reading the xml failed
    */
   public boolean hasActiveMaintenanceWindows(String computerName) throws IOException {
-    if (!cache.containsKey(computerName)) {
+    if (!cache.containsKey(computerName) || (indexLoaded && index.getSummary(computerName) == null)) {
       return false;
     }
     SortedSet<MaintenanceWindow> maintenanceList;
     try {
-      maintenanceList = getMaintenanceWindows(computerName);
+      maintenanceList = peekMaintenanceDefinitions(computerName).getScheduled();
     } catch (IOException e) {
       LOGGER.log(Level.WARNING, "Failed to read maintenance window list for {0}", computerName);
       return false;
@@ -109,6 +175,245 @@ public class MaintenanceHelper {
     return maintenanceList.stream().anyMatch(MaintenanceWindow::isMaintenanceScheduled);
   }
 
+  /**
+   * Returns the number of agents that have maintenance windows defined.
+   * Only reads the index, transitions are applied by {@link MaintenanceIndexRefresh}.
+   *
+   * @return number of agents with maintenance windows
+   */
+  public int getAgentsWithMaintenanceWindows() {
+    return index.getAgentsWithWindows();
+  }
+
+  /**
+   * Returns the number of agents that have an active maintenance window.
+   * Only reads the index, transitions are applied by {@link MaintenanceIndexRefresh}.
+   *
+   * @return number of agents in maintenance
+   */
+  public int getAgentsInMaintenance() {
+    return index.getAgentsInMaintenance();
+  }
+
+  /**
+   * Returns the start of the next maintenance window of an agent that has not yet started.
+   * Only reads the index and never loads definitions, so it can be called while holding the queue lock.
+   *
+   * @param computerName Name of the agent
+   * @return The start time or <code>null</code> when no maintenance window is upcoming
+   */
+  @CheckForNull
+  public LocalDateTime getNextMaintenanceStart(String computerName) {
+    return index.getNextStart(computerName);
+  }
+
+  /**
+   * Returns whether an agent has an active maintenance window according to the index.
+   * Only reads the index and never loads definitions, so it can be called while holding the queue lock.
+   *
+   * @param computerName Name of the agent
+   * @return true when a maintenance window is active
+   */
+  public boolean isInMaintenance(String computerName) {
+    return index.isActive(computerName);
+  }
+
+  /**
+   * Returns the number of executors that remain available when the agent runs with reduced capacity according to
+   * the index. Only reads the index and never loads definitions, so it can be called while holding the queue lock.
+   *
+   * @param computerName Name of the agent
+   * @return The remaining executors or 0 when the agent doesn't run with reduced capacity
+   */
+  public int getRemainingExecutors(String computerName) {
+    return index.getRemainingExecutors(computerName);
+  }
+
+  /**
+   * Returns the indexed maintenance state of all agents that have maintenance definitions.
+   * Only reads the index, transitions are applied by {@link MaintenanceIndexRefresh}.
+   *
+   * @return The state of all agents
+   */
+  @NonNull
+  List<MaintenanceIndex.Entry> getIndexEntries() {
+    return index.getEntries();
+  }
+
+  @NonNull
+  MaintenanceIndex getIndex() {
+    return index;
+  }
+
+  /**
+   * Returns the names of all agents that have maintenance definitions.
+   *
+   * @return List of agent names
+   */
+  @NonNull
+  public List<String> getAgentsWithMaintenanceDefinitions() {
+    List<String> computerNames = new ArrayList<>();
+    for (MaintenanceSummary summary : index.getSummaries()) {
+      computerNames.add(summary.getComputerName());
+    }
+    return computerNames;
+  }
+
+  /**
+   * Returns whether maintenance windows started or ended that are not yet reflected in the index.
+   *
+   * @return true when {@link #applyDueTransitions()} has work to do
+   */
+  boolean hasDueTransitions() {
+    return index.hasDueTransitions(LocalDateTime.now());
+  }
+
+  /**
+   * Updates the index for all agents for which a maintenance window started or ended since the last update.
+   * This can load definitions, so it is run in the background by {@link MaintenanceIndexRefresh}.
+   */
+  void applyDueTransitions() {
+    for (String computerName : index.pollDueAgents(LocalDateTime.now())) {
+      MaintenanceDefinitions md = cache.get(computerName);
+      if (md != null) {
+        updateIndex(computerName, md);
+      } else if (Jenkins.get().getComputer(computerName) != null) {
+        // the index was read from disk, loading the definitions updates the index
+        try {
+          peekMaintenanceDefinitions(computerName);
+        } catch (IOException e) {
+          LOGGER.log(Level.WARNING, "Failed to read maintenance definitions for {0}", computerName);
+          index.remove(computerName);
+        }
+      } else {
+        index.remove(computerName);
+      }
+    }
+  }
+
+  private void updateIndex(String computerName, MaintenanceDefinitions md) {
+    long lastModified = getStore().getLastModified(computerName);
+    synchronized (md) {
+      if (cache.get(computerName) == md) {
+        index.update(computerName, md, lastModified, LocalDateTime.now());
+      }
+    }
+    scheduleIndexSave();
+  }
+
+  /**
+   * Checks if the persisted summary shows that the agent has no maintenance window that could be active now.
+   * Only agents whose definitions are not yet loaded are considered.
+   *
+   * @param computerName Name of the agent
+   * @return true when there is no need to load the definitions
+   */
+  private boolean isMaintenanceNotDue(String computerName) {
+    if (!indexLoaded || cache.containsKey(computerName)) {
+      return false;
+    }
+    MaintenanceSummary summary = index.getSummary(computerName);
+    if (summary == null || summary.getWindowCount() == 0) {
+      return true;
+    }
+    LocalDateTime earliestStart = summary.getEarliestStart();
+    return earliestStart != null && !LocalDateTime.now().isAfter(earliestStart);
+  }
+
+  private XmlFile getIndexFile(Jenkins jenkins) {
+    return new XmlFile(new File(jenkins.getRootDir(), MaintenanceIndex.class.getName() + ".xml"));
+  }
+
+  private void scheduleIndexSave() {
+    if (indexLoaded && indexSaveScheduled.compareAndSet(false, true)) {
+      Timer.get().schedule(() -> MaintenanceSideEffects.execute(this::saveIndex), INDEX_SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+  }
+
+  private void saveIndex() {
+    indexSaveScheduled.set(false);
+    Jenkins jenkins = Jenkins.getInstanceOrNull();
+    if (jenkins == null) {
+      return;
+    }
+    try {
+      getIndexFile(jenkins).write(new ArrayList<>(index.getSummaries()));
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to save maintenance index", e);
+    }
+  }
+
+  /**
+   * Loads the persisted index on startup.
+   * When no index exists or entries are outdated, the index is rebuilt in the background.
+   */
+  @Initializer(after = InitMilestone.JOB_CONFIG_ADAPTED)
+  public static void loadIndex() {
+    INSTANCE.indexLoaded = false;
+    INSTANCE.readIndex();
+    MaintenanceSideEffects.execute(INSTANCE::reconcileIndex);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void readIndex() {
+    XmlFile file = getIndexFile(Jenkins.get());
+    if (!file.exists()) {
+      LOGGER.log(Level.FINE, "No maintenance index found, index will be rebuilt");
+      return;
+    }
+    try {
+      index.load((List<MaintenanceSummary>) file.read(), LocalDateTime.now());
+    } catch (IOException | ClassCastException e) {
+      LOGGER.log(Level.WARNING, "Failed to read maintenance index, index will be rebuilt", e);
+    }
+  }
+
+  /**
+   * Brings the index in sync with the stored maintenance definitions.
+   * Definitions are only loaded for agents whose definitions were modified since the index was written.
+   */
+  private void reconcileIndex() {
+    MaintenanceStore store = getStore();
+    Set<String> computerNames = new HashSet<>();
+    List<String> outdated = new ArrayList<>();
+    for (Node node : Jenkins.get().getNodes()) {
+      String computerName = node.getNodeName();
+      computerNames.add(computerName);
+      MaintenanceDefinitions md = cache.get(computerName);
+      if (md != null) {
+        updateIndex(computerName, md);
+        continue;
+      }
+      long lastModified = store.getLastModified(computerName);
+      MaintenanceSummary summary = index.getSummary(computerName);
+      if (summary == null ? lastModified != 0 : summary.getLastModified() != lastModified) {
+        outdated.add(computerName);
+      }
+    }
+    try {
+      Map<String, MaintenanceDefinitions> loaded = store.loadAll(outdated);
+      for (String computerName : outdated) {
+        MaintenanceDefinitions md = loaded.get(computerName);
+        if (md == null || md.isEmpty()) {
+          emptyAgents.add(computerName);
+          index.remove(computerName);
+        } else if (Jenkins.get().getComputer(computerName) != null && cache.putIfAbsent(computerName, md) == null) {
+          updateIndex(computerName, md);
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to read maintenance definitions", e);
+    }
+    for (MaintenanceSummary summary : index.getSummaries()) {
+      if (!computerNames.contains(summary.getComputerName())) {
+        index.remove(summary.getComputerName());
+      }
+    }
+    indexLoaded = true;
+    scheduleIndexSave();
+    LOGGER.log(Level.FINE, "Maintenance index is up to date");
+  }
+
   /**
    * Adds a maintenance window to a computer.
    *
@@ -124,6 +429,7 @@ public class MaintenanceHelper {
       md.getScheduled().add(mw);
       saveMaintenanceWindows(computerName, md);
     }
+    MaintenanceListener.fire(l -> l.onCreated(computerName, mw));
   }
 
   /**
@@ -151,14 +457,7 @@ public class MaintenanceHelper {
    * @throws IOException when writing the xml failed
    */
   public void deleteMaintenanceWindow(String computerName, String id) throws IOException {
-    if (isValidUuid(id) && isValidComputerName(computerName)) {
-      LOGGER.log(Level.FINE, "Deleting maintenance window for {0}: {1}", new Object[]{getSafeComputerName(computerName), id});
-      MaintenanceDefinitions md = getMaintenanceDefinitions(computerName);
-      synchronized (md) {
-        md.getScheduled().removeIf(mw -> Objects.equals(id, mw.getId()));
-        saveMaintenanceWindows(computerName, md);
-      }
-    }
+    deleteMaintenanceWindows(computerName, Collections.singletonList(id));
   }
 
   /**
@@ -169,14 +468,274 @@ public class MaintenanceHelper {
    * @throws IOException when writing the xml failed
    */
   public void deleteRecurringMaintenanceWindow(String computerName, String id) throws IOException {
-    if (isValidUuid(id) && isValidComputerName(computerName)) {
-      LOGGER.log(Level.FINE, "Deleting maintenance window for {0}: {1}", new Object[]{getSafeComputerName(computerName), id});
-      MaintenanceDefinitions md = getMaintenanceDefinitions(computerName);
-      synchronized (md) {
-        md.getRecurring().removeIf(mw -> Objects.equals(id, mw.getId()));
+    deleteRecurringMaintenanceWindows(computerName, Collections.singletonList(id));
+  }
+
+  /**
+   * Deletes several maintenance windows from a computer. The definitions are saved once.
+   *
+   * @param computerName Name of the computer
+   * @param ids          Ids of the maintenance windows
+   * @return For each id whether a maintenance window was removed
+   * @throws IOException when writing the xml failed
+   */
+  @NonNull
+  public Map<String, Boolean> deleteMaintenanceWindows(String computerName, Collection<String> ids) throws IOException {
+    return deleteWindows(computerName, ids, false);
+  }
+
+  /**
+   * Deletes several recurring maintenance windows from a computer. The definitions are saved once.
+   *
+   * @param computerName Name of the computer
+   * @param ids          Ids of the recurring maintenance windows
+   * @return For each id whether a recurring maintenance window was removed
+   * @throws IOException when writing the xml failed
+   */
+  @NonNull
+  public Map<String, Boolean> deleteRecurringMaintenanceWindows(String computerName, Collection<String> ids) throws IOException {
+    return deleteWindows(computerName, ids, true);
+  }
+
+  private Map<String, Boolean> deleteWindows(String computerName, Collection<String> ids, boolean recurring) throws IOException {
+    Map<String, Boolean> result = new LinkedHashMap<>();
+    for (String id : ids) {
+      result.put(id, false);
+    }
+    if (!isValidComputerName(computerName)) {
+      return result;
+    }
+    LOGGER.log(Level.FINE, "Deleting maintenance windows for {0}: {1}", new Object[]{getSafeComputerName(computerName), ids});
+    MaintenanceDefinitions md = getMaintenanceDefinitions(computerName);
+    List<MaintenanceWindow> deleted = new ArrayList<>();
+    synchronized (md) {
+      boolean changed = false;
+      for (String id : ids) {
+        if (!isValidUuid(id)) {
+          continue;
+        }
+        Object removed = recurring ? md.removeRecurringWindow(id) : md.removeScheduledWindow(id);
+        if (removed != null) {
+          if (removed instanceof MaintenanceWindow mw) {
+            deleted.add(mw);
+          }
+          result.put(id, true);
+          changed = true;
+        }
+      }
+      if (changed) {
         saveMaintenanceWindows(computerName, md);
       }
     }
+    fireDeleted(computerName, deleted);
+    return result;
+  }
+
+  /**
+   * Merges maintenance windows into the definitions of an agent.
+   * Windows are matched by id first and by content second, so merging the same windows again
+   * doesn't change anything. Scheduled windows that are already over are skipped.
+   * The definitions are saved once at the end and only when something changed.
+   *
+   * @param computerName Name of the agent
+   * @param imported The maintenance windows to merge
+   * @param dryRun When true, only the changes are computed
+   * @return The changes
+   * @throws IOException when reading or writing the xml failed
+   */
+  @NonNull
+  public MaintenanceDiff mergeMaintenanceDefinitions(String computerName, MaintenanceDefinitions imported, boolean dryRun)
+      throws IOException {
+    return mergeMaintenanceDefinitions(computerName, imported, null, dryRun);
+  }
+
+  /**
+   * Merges maintenance windows into the definitions of an agent and removes windows that are no longer wanted.
+   * Windows to remove are matched by id and are kept when a merged window has the same id.
+   * The definitions are saved once at the end and only when something changed.
+   *
+   * @param computerName Name of the agent
+   * @param imported The maintenance windows to merge
+   * @param obsoleteIds The ids of the maintenance windows to remove, may be <code>null</code>
+   * @param dryRun When true, only the changes are computed
+   * @return The changes
+   * @throws IOException when reading or writing the xml failed
+   */
+  @NonNull
+  public MaintenanceDiff mergeMaintenanceDefinitions(String computerName, MaintenanceDefinitions imported,
+                                                     @CheckForNull Set<String> obsoleteIds, boolean dryRun)
+      throws IOException {
+    MaintenanceDefinitions md = getMaintenanceDefinitions(computerName);
+    MaintenanceDiff diff = new MaintenanceDiff();
+    LocalDateTime now = LocalDateTime.now();
+    List<MaintenanceWindow> deleted = new ArrayList<>();
+    synchronized (md) {
+      SortedSet<MaintenanceWindow> scheduled = new TreeSet<>(md.getScheduled());
+      Set<RecurringMaintenanceWindow> recurring = new HashSet<>(md.getRecurring());
+      if (obsoleteIds != null && !obsoleteIds.isEmpty()) {
+        Set<String> keep = new HashSet<>();
+        imported.getScheduled().forEach(mw -> keep.add(mw.getId()));
+        imported.getRecurring().forEach(rmw -> keep.add(rmw.getId()));
+        Iterator<MaintenanceWindow> iter = scheduled.iterator();
+        while (iter.hasNext()) {
+          MaintenanceWindow existing = iter.next();
+          if (obsoleteIds.contains(existing.getId()) && !keep.contains(existing.getId())) {
+            iter.remove();
+            deleted.add(existing);
+            diff.removed(existing.getId());
+          }
+        }
+        Iterator<RecurringMaintenanceWindow> recurringIter = recurring.iterator();
+        while (recurringIter.hasNext()) {
+          RecurringMaintenanceWindow existing = recurringIter.next();
+          if (obsoleteIds.contains(existing.getId()) && !keep.contains(existing.getId())) {
+            recurringIter.remove();
+            diff.removed(existing.getId());
+          }
+        }
+      }
+
+      Map<String, MaintenanceWindow> scheduledById = new HashMap<>();
+      for (MaintenanceWindow mw : scheduled) {
+        scheduledById.put(mw.getId(), mw);
+      }
+      for (MaintenanceWindow mw : imported.getScheduled()) {
+        if (mw.isMaintenanceOver(now)) {
+          diff.skipped();
+          continue;
+        }
+        MaintenanceWindow existing = scheduledById.get(mw.getId());
+        if (existing == null ? scheduled.contains(mw) : existing.equals(mw)) {
+          diff.unchanged();
+          continue;
+        }
+        if (existing != null) {
+          scheduled.remove(existing);
+          diff.updated(mw.getId());
+        } else {
+          diff.added(mw.getId());
+        }
+        scheduled.add(mw);
+        scheduledById.put(mw.getId(), mw);
+      }
+
+      Map<String, RecurringMaintenanceWindow> recurringById = new HashMap<>();
+      for (RecurringMaintenanceWindow rmw : recurring) {
+        recurringById.put(rmw.getId(), rmw);
+      }
+      for (RecurringMaintenanceWindow rmw : imported.getRecurring()) {
+        RecurringMaintenanceWindow existing = recurringById.get(rmw.getId());
+        if (existing == null ? recurring.contains(rmw) : existing.equals(rmw)) {
+          diff.unchanged();
+          continue;
+        }
+        if (existing != null) {
+          recurring.remove(existing);
+          diff.updated(rmw.getId());
+        } else {
+          diff.added(rmw.getId());
+        }
+        recurring.add(rmw);
+        recurringById.put(rmw.getId(), rmw);
+      }
+
+      if (!dryRun && diff.hasChanges()) {
+        LOGGER.log(Level.FINE, "Merging maintenance windows for {0}: {1} added, {2} updated, {3} removed",
+            new Object[] { getSafeComputerName(computerName), diff.getAdded().size(), diff.getUpdated().size(),
+                diff.getRemoved().size() });
+        md.getScheduled().clear();
+        md.getScheduled().addAll(scheduled);
+        md.getRecurring().clear();
+        md.getRecurring().addAll(recurring);
+        saveMaintenanceWindows(computerName, md);
+        fireDeleted(computerName, deleted);
+        fireCreated(computerName, md, diff.getAdded());
+      }
+    }
+    return diff;
+  }
+
+  /**
+   * Replaces the maintenance definitions of an agent, e.g. after editing them in the UI.
+   * Windows are matched by id. Windows that didn't change are kept with their runtime state, e.g. whether builds have
+   * been aborted. The definitions are only saved when something changed.
+   *
+   * @param computerName Name of the agent
+   * @param scheduled The new scheduled maintenance windows
+   * @param recurring The new recurring maintenance windows
+   * @return The changes
+   * @throws IOException when writing the xml failed
+   */
+  @NonNull
+  public MaintenanceDiff replaceMaintenanceDefinitions(String computerName, Collection<MaintenanceWindow> scheduled,
+                                                       Collection<RecurringMaintenanceWindow> recurring) throws IOException {
+    MaintenanceDefinitions md = getMaintenanceDefinitions(computerName);
+    MaintenanceDiff diff = new MaintenanceDiff();
+    List<MaintenanceWindow> deleted = new ArrayList<>();
+    synchronized (md) {
+      replaceWindows(md.getScheduled(), scheduled, MaintenanceWindow::getId, diff, deleted);
+      replaceWindows(md.getRecurring(), recurring, RecurringMaintenanceWindow::getId, diff, new ArrayList<>());
+      if (diff.hasChanges()) {
+        LOGGER.log(Level.FINE, "Replacing maintenance windows for {0}: {1} added, {2} updated, {3} removed",
+            new Object[] { getSafeComputerName(computerName), diff.getAdded().size(), diff.getUpdated().size(),
+                diff.getRemoved().size() });
+        saveMaintenanceWindows(computerName, md);
+        fireDeleted(computerName, deleted);
+        fireCreated(computerName, md, diff.getAdded());
+      }
+    }
+    return diff;
+  }
+
+  private static <T> void replaceWindows(Set<T> current, Collection<T> wanted, Function<T, String> idOf, MaintenanceDiff diff,
+                                         List<T> removed) {
+    Map<String, T> wantedById = new LinkedHashMap<>();
+    for (T t : wanted) {
+      wantedById.put(idOf.apply(t), t);
+    }
+    Set<String> replaced = new HashSet<>();
+    Iterator<T> iter = current.iterator();
+    while (iter.hasNext()) {
+      T existing = iter.next();
+      String id = idOf.apply(existing);
+      T t = wantedById.get(id);
+      if (t == null) {
+        iter.remove();
+        removed.add(existing);
+        diff.removed(id);
+      } else if (existing.equals(t)) {
+        wantedById.remove(id);
+        diff.unchanged();
+      } else {
+        iter.remove();
+        replaced.add(id);
+      }
+    }
+    for (Map.Entry<String, T> entry : wantedById.entrySet()) {
+      if (!current.add(entry.getValue())) {
+        // same content as another window
+        diff.skipped();
+      } else if (replaced.contains(entry.getKey())) {
+        diff.updated(entry.getKey());
+      } else {
+        diff.added(entry.getKey());
+      }
+    }
+  }
+
+  private static void fireCreated(String computerName, MaintenanceDefinitions md, List<String> ids) {
+    for (String id : ids) {
+      MaintenanceWindow mw = md.getScheduledWindow(id);
+      if (mw != null) {
+        MaintenanceListener.fire(l -> l.onCreated(computerName, mw));
+      }
+    }
+  }
+
+  private static void fireDeleted(String computerName, List<MaintenanceWindow> deleted) {
+    for (MaintenanceWindow mw : deleted) {
+      MaintenanceListener.fire(l -> l.onDeleted(computerName, mw));
+    }
   }
 
   /**
@@ -221,31 +780,103 @@ public class MaintenanceHelper {
     }
 
     MaintenanceDefinitions md = cache.get(computerName);
+    if (md != null) {
+      accessed.add(computerName);
+      return md;
+    }
+    if (emptyAgents.contains(computerName)) {
+      // the caller might add windows, so it needs its own instance
+      md = cache.computeIfAbsent(computerName, n -> new MaintenanceDefinitions(new TreeSet<>(), new HashSet<>()));
+      emptyAgents.remove(computerName);
+      accessed.add(computerName);
+      return md;
+    }
 
+    LOGGER.log(Level.FINER, "Loading maintenance list for {0}", getSafeComputerName(computerName));
+    md = loadFromStore(computerName);
     if (md == null) {
-      XmlFile xmlMaintenanceFile = getMaintenanceWindowsFile(computerName);
-      if (xmlMaintenanceFile.exists()) {
-        LOGGER.log(Level.FINER, "Loading maintenance list from file for {0}", getSafeComputerName(computerName));
-        try {
-          md = (MaintenanceDefinitions) xmlMaintenanceFile.read();
-          cache.put(computerName, md);
-          return md;
-        } catch (ClassCastException cce) {
-          LOGGER.log(Level.WARNING, "Failed loading maintenance definition file for {0}. Trying to read old format",
-                  getSafeComputerName(computerName));
-        }
-        SortedSet<MaintenanceWindow> scheduled = (SortedSet<MaintenanceWindow>) xmlMaintenanceFile.read();
-        md = new MaintenanceDefinitions(scheduled, new HashSet<>());
-        saveMaintenanceWindows(computerName, md);
-      } else {
-        LOGGER.log(Level.FINER, "Creating empty maintenance list for {0}", getSafeComputerName(computerName));
-        md = new MaintenanceDefinitions(new TreeSet<>(), new HashSet<>());
+      LOGGER.log(Level.FINER, "Creating empty maintenance list for {0}", getSafeComputerName(computerName));
+      md = new MaintenanceDefinitions(new TreeSet<>(), new HashSet<>());
+    }
+    if (Jenkins.get().getComputer(computerName) != null) {
+      cache.put(computerName, md);
+      accessed.add(computerName);
+      updateIndex(computerName, md);
+    }
+    return md;
+  }
+
+  @CheckForNull
+  private MaintenanceDefinitions loadFromStore(String computerName) throws IOException {
+    long start = System.nanoTime();
+    try {
+      return getStore().load(computerName);
+    } finally {
+      MaintenanceMetrics.STORE_LOAD.record(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Returns the maintenance definitions of an agent for reading.
+   * For agents without maintenance windows the shared {@link MaintenanceDefinitions#EMPTY} is returned,
+   * nothing is cached for them.
+   *
+   * @param computerName Name of the agent
+   * @return The definitions, must not be modified when they are {@link MaintenanceDefinitions#EMPTY}
+   * @throws IOException when reading the definitions failed
+   */
+  @NonNull
+  private MaintenanceDefinitions peekMaintenanceDefinitions(String computerName) throws IOException {
+    MaintenanceDefinitions md = cache.get(computerName);
+    if (md != null) {
+      accessed.add(computerName);
+      return md;
+    }
+    if (emptyAgents.contains(computerName) || Jenkins.get().getComputer(computerName) == null) {
+      return MaintenanceDefinitions.EMPTY;
+    }
+    md = loadFromStore(computerName);
+    if (md == null || md.isEmpty()) {
+      emptyAgents.add(computerName);
+      index.remove(computerName);
+      scheduleIndexSave();
+      return MaintenanceDefinitions.EMPTY;
+    }
+    MaintenanceDefinitions existing = cache.putIfAbsent(computerName, md);
+    if (existing != null) {
+      return existing;
+    }
+    accessed.add(computerName);
+    updateIndex(computerName, md);
+    return md;
+  }
+
+  /**
+   * Drops cached definitions without maintenance windows that were not used since the last call.
+   * Such agents are remembered as having no definitions, so they don't need to be loaded again.
+   * Definitions with maintenance windows stay cached as they carry state that is not persisted.
+   *
+   * @return The number of dropped definitions
+   */
+  int evictUnusedDefinitions() {
+    Jenkins j = Jenkins.get();
+    emptyAgents.removeIf(computerName -> j.getComputer(computerName) == null);
+    int evicted = 0;
+    for (Map.Entry<String, MaintenanceDefinitions> entry : cache.entrySet()) {
+      String computerName = entry.getKey();
+      MaintenanceDefinitions md = entry.getValue();
+      if (accessed.remove(computerName)) {
+        continue;
       }
-      if (Jenkins.get().getComputer(computerName) != null) {
-        cache.put(computerName, md);
+      synchronized (md) {
+        if (md.isEmpty() && cache.remove(computerName, md)) {
+          emptyAgents.add(computerName);
+          evicted++;
+        }
       }
     }
-    return md;
+    LOGGER.log(Level.FINE, "Evicted {0} unused empty maintenance definitions", evicted);
+    return evicted;
   }
 
   /**
@@ -257,32 +888,36 @@ public class MaintenanceHelper {
    */
   @CheckForNull
   public MaintenanceWindow getMaintenanceWindow(String computerName, String id) {
-    SortedSet<MaintenanceWindow> mwSet = null;
     try {
-      mwSet = getMaintenanceWindows(computerName);
+      return peekMaintenanceDefinitions(computerName).getScheduledWindow(id);
     } catch (IOException e) {
       return null;
     }
-    Optional<MaintenanceWindow> mw = mwSet.stream().filter(w -> w.getId().equals(id)).findFirst();
-    return mw.orElse(null);
   }
 
   /**
-   * Returns the first maintenance that is currently active or <code>null</code>
-   * if configured maintenance windows are not active. All maintenance windows
-   * that are finished are removed.
+   * Returns the maintenance that is currently active or <code>null</code>
+   * if configured maintenance windows are not active. When several windows are active, a window that takes
+   * the agent offline is preferred, otherwise the window with the fewest remaining executors.
+   * All maintenance windows that are finished are removed.
    *
    * @param computerName Name of computer
    * @return active maintenance or null
    */
   public @CheckForNull MaintenanceWindow getMaintenance(String computerName) {
+    if (isMaintenanceNotDue(computerName)) {
+      return null;
+    }
     MaintenanceDefinitions md;
     try {
-      md = getMaintenanceDefinitions(computerName);
+      md = peekMaintenanceDefinitions(computerName);
     } catch (IOException e) {
       LOGGER.log(Level.WARNING, "Failed to read maintenance window list for {0}", getSafeComputerName(computerName));
       return null;
     }
+    if (md == MaintenanceDefinitions.EMPTY) {
+      return null;
+    }
     MaintenanceWindow active = null;
     synchronized (md) {
       Iterator<MaintenanceWindow> iter = md.getScheduled().iterator();
@@ -290,13 +925,17 @@ public class MaintenanceHelper {
       try {
         while (iter.hasNext()) {
           MaintenanceWindow m = iter.next();
-          if (m.isMaintenanceScheduled() && active == null) {
+          // a window that takes the agent offline wins over one with reduced capacity, of the windows with reduced
+          // capacity the one with the fewest remaining executors wins, as in the index
+          if (m.isMaintenanceScheduled() && (active == null || (active.isDegraded()
+              && (!m.isDegraded() || m.getRemainingExecutors() < active.getRemainingExecutors())))) {
             active = m;
             continue;
           }
           if (m.isMaintenanceOver()) {
             iter.remove();
             changed = true;
+            MaintenanceListener.fire(l -> l.onEnded(computerName, m));
           }
         }
       } finally {
@@ -320,21 +959,34 @@ public class MaintenanceHelper {
    */
   public void checkRecurring(String computerName) {
     LOGGER.log(Level.FINER, "Checking for recurring maintenance windows for {0}", getSafeComputerName(computerName));
+    if (indexLoaded && !cache.containsKey(computerName)) {
+      MaintenanceSummary summary = index.getSummary(computerName);
+      if (summary == null || summary.getRecurringCount() == 0) {
+        return;
+      }
+    }
     MaintenanceDefinitions md;
     try {
-      md = getMaintenanceDefinitions(computerName);
+      md = peekMaintenanceDefinitions(computerName);
     } catch (IOException e) {
       LOGGER.log(Level.WARNING, "Failed to read maintenance definitions for {0}", getSafeComputerName(computerName));
       return;
     }
+    if (md == MaintenanceDefinitions.EMPTY) {
+      return;
+    }
 
     boolean added = false;
     synchronized (md) {
       for (RecurringMaintenanceWindow rmw : md.getRecurring()) {
-        Set<MaintenanceWindow> fmw = rmw.getFutureMaintenanceWindows();
+        Set<MaintenanceWindow> fmw = rmw.getFutureMaintenanceWindows(computerName);
         if (!fmw.isEmpty()) {
           LOGGER.log(Level.FINER, "Found future maintenance windows for {0}", getSafeComputerName(computerName));
-          md.getScheduled().addAll(fmw);
+          for (MaintenanceWindow mw : fmw) {
+            if (md.getScheduled().add(mw)) {
+              MaintenanceListener.fire(l -> l.onCreated(computerName, mw));
+            }
+          }
           added = true;
         }
       }
@@ -362,26 +1014,109 @@ public class MaintenanceHelper {
    */
   public void saveMaintenanceWindows(String computerName, MaintenanceDefinitions md) throws IOException {
     LOGGER.log(Level.FINER, "Saving maintenance window for {0}", getSafeComputerName(computerName));
-    XmlFile xmlMaintenanceFile = getMaintenanceWindowsFile(computerName);
-    xmlMaintenanceFile.write(md);
+    MaintenanceStore store = getStore();
+    long start = System.nanoTime();
+    store.save(computerName, md);
+    MaintenanceMetrics.STORE_SAVE.record(System.nanoTime() - start);
+    writtenLastModified.put(computerName, store.getLastModified(computerName));
+    emptyAgents.remove(computerName);
+    accessed.add(computerName);
+    updateIndex(computerName, md);
   }
 
-  private XmlFile getMaintenanceWindowsFile(String computerName) throws IOException {
-    return new XmlFile(new File(new File(getNodesDirectory(), computerName), "maintenance-windows.xml"));
+  /**
+   * Reloads the maintenance definitions of an agent after they were changed outside of Jenkins.
+   * The content of the cached definitions is replaced while holding their lock, so that concurrent users
+   * never see a partial state. Maintenance windows that still exist keep their aborted state.
+   * Changes that were written by this helper are ignored.
+   *
+   * @param computerName Name of the agent
+   * @return true when the definitions were reloaded
+   */
+  public boolean reloadMaintenanceDefinitions(String computerName) {
+    if (Jenkins.get().getComputer(computerName) == null) {
+      return false;
+    }
+    try {
+      MaintenanceDefinitions md = cache.get(computerName);
+      if (md == null) {
+        // not loaded yet, loading reads the current definitions and updates the index
+        emptyAgents.remove(computerName);
+        peekMaintenanceDefinitions(computerName);
+        return true;
+      }
+      MaintenanceStore store = getStore();
+      long lastModified = store.getLastModified(computerName);
+      Long written = writtenLastModified.get(computerName);
+      if (written != null && written == lastModified) {
+        return false;
+      }
+      MaintenanceDefinitions loaded = store.load(computerName);
+      if (loaded == null) {
+        loaded = new MaintenanceDefinitions(new TreeSet<>(), new HashSet<>());
+      }
+      LOGGER.log(Level.FINE, "Reloading changed maintenance definitions for {0}", computerName);
+      synchronized (md) {
+        if (cache.get(computerName) != md) {
+          return false;
+        }
+        for (MaintenanceWindow mw : loaded.getScheduled()) {
+          MaintenanceWindow old = md.getScheduledWindow(mw.getId());
+          if (old != null && old.buildsHaveBeenAborted()) {
+            mw.setAborted(true);
+          }
+        }
+        md.getScheduled().clear();
+        md.getScheduled().addAll(loaded.getScheduled());
+        md.getRecurring().clear();
+        md.getRecurring().addAll(loaded.getRecurring());
+        writtenLastModified.put(computerName, lastModified);
+      }
+      updateIndex(computerName, md);
+      return true;
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Failed to reload maintenance definitions for " + computerName, e);
+      return false;
+    }
   }
 
-  private File getNodesDirectory() throws IOException {
-    // jenkins.model.Nodes#getNodesDirectory() is private, so we have to duplicate
-    // it here.
-    File nodesDir = new File(Jenkins.get().getRootDir(), "nodes");
-    if (!nodesDir.exists() || !nodesDir.isDirectory()) {
-      throw new IOException("Nodes directory does not exist");
+  /**
+   * Returns the store that persists the maintenance definitions.
+   *
+   * @return The store
+   */
+  @NonNull
+  public MaintenanceStore getStore() {
+    MaintenanceStore s = store;
+    if (s == null) {
+      s = MaintenanceStore.get();
+      store = s;
     }
-    return nodesDir;
+    return s;
+  }
+
+  /**
+   * Replaces the store and drops all cached definitions. Passing <code>null</code> selects the configured store again.
+   *
+   * @param store The store to use
+   */
+  void setStore(@CheckForNull MaintenanceStore store) {
+    this.store = store;
+    cache.clear();
+    emptyAgents.clear();
+    accessed.clear();
+    writtenLastModified.clear();
   }
 
   public void deleteAgent(String computerName) {
     cache.remove(computerName);
+    emptyAgents.remove(computerName);
+    accessed.remove(computerName);
+    writtenLastModified.remove(computerName);
+    index.remove(computerName);
+    DrainLeadTime.get().remove(computerName);
+    MaintenanceConcurrency.get().release(computerName);
+    scheduleIndexSave();
   }
 
   /**
@@ -391,13 +1126,24 @@ public class MaintenanceHelper {
    * @param newName new name of the agent
    */
   public void renameAgent(String oldName, String newName) {
+    DrainLeadTime.get().rename(oldName, newName);
+    MaintenanceConcurrency.get().rename(oldName, newName);
+    if (emptyAgents.remove(oldName)) {
+      emptyAgents.add(newName);
+    }
     MaintenanceDefinitions md = cache.get(oldName);
     if (md != null) {
       LOGGER.log(Level.FINEST, "Persisting existing maintenance windows after agent rename");
       cache.remove(oldName);
+      writtenLastModified.remove(oldName);
+      index.remove(oldName);
       cache.put(newName, md);
       try {
-        saveMaintenanceWindows(newName, md);
+        synchronized (md) {
+          getStore().rename(oldName, newName, md);
+          writtenLastModified.put(newName, getStore().getLastModified(newName));
+        }
+        updateIndex(newName, md);
       } catch (IOException e) {
         LOGGER.log(Level.WARNING, "Failed to persists agent maintenance windows after agent rename {0}", newName);
       }
@@ -405,7 +1151,10 @@ public class MaintenanceHelper {
   }
 
   public void createAgent(String nodeName) {
-    cache.put(nodeName, new MaintenanceDefinitions(new TreeSet<>(), new HashSet<>()));
+    cache.remove(nodeName);
+    emptyAgents.add(nodeName);
+    index.remove(nodeName);
+    scheduleIndexSave();
   }
 
   /**
@@ -453,10 +1202,7 @@ public class MaintenanceHelper {
           try {
             node.save();
             deleteAgent(computerName);
-            XmlFile maintenanceFile = getMaintenanceWindowsFile(computerName);
-            if (maintenanceFile.exists()) {
-              maintenanceFile.delete();
-            }
+            getStore().delete(computerName);
           } catch (IOException e) {
             LOGGER.log(Level.WARNING, "Failed to save node or remove file with maintenance windows while removing retention strategy: ", e);
           }
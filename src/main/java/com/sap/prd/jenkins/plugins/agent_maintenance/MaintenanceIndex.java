@@ -0,0 +1,318 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Keeps track of the maintenance state of all agents, so that fleet wide counters can be read
+ * without iterating over all agents.
+ * The index is updated whenever the maintenance definitions of an agent are loaded or saved.
+ * Maintenance windows that start or end in the meantime are registered as transitions and are
+ * applied in the background by {@link MaintenanceIndexRefresh}, reading the index never loads definitions.
+ */
+@Restricted(NoExternalUse.class)
+public class MaintenanceIndex {
+
+  private final Map<String, Entry> agents = new HashMap<>();
+  private final NavigableSet<Transition> transitions = new TreeSet<>();
+  private int agentsWithWindows;
+  private int agentsInMaintenance;
+
+  /**
+   * Updates the state of an agent from its maintenance definitions.
+   * The caller must hold the lock on the definitions.
+   *
+   * @param computerName Name of the agent
+   * @param md The maintenance definitions of the agent
+   * @param now The current time
+   */
+  synchronized void update(@NonNull String computerName, @NonNull MaintenanceDefinitions md, @NonNull LocalDateTime now) {
+    update(computerName, md, 0, now);
+  }
+
+  /**
+   * Updates the state of an agent from its maintenance definitions.
+   * The caller must hold the lock on the definitions.
+   *
+   * @param computerName Name of the agent
+   * @param md The maintenance definitions of the agent
+   * @param lastModified Timestamp of the last modification of the persisted definitions
+   * @param now The current time
+   */
+  synchronized void update(@NonNull String computerName, @NonNull MaintenanceDefinitions md, long lastModified,
+                           @NonNull LocalDateTime now) {
+    boolean active = false;
+    LocalDateTime next = null;
+    LocalDateTime nextStart = null;
+    LocalDateTime activeUntil = null;
+    boolean offline = false;
+    int remainingExecutors = 0;
+    for (MaintenanceWindow mw : md.getScheduled()) {
+      LocalDateTime candidate;
+      if (mw.isMaintenanceScheduled(now)) {
+        active = true;
+        if (!mw.isDegraded()) {
+          offline = true;
+        } else if (remainingExecutors == 0 || mw.getRemainingExecutors() < remainingExecutors) {
+          remainingExecutors = mw.getRemainingExecutors();
+        }
+        candidate = mw.getEndDateTime();
+        if (activeUntil == null || candidate.isAfter(activeUntil)) {
+          activeUntil = candidate;
+        }
+      } else if (!mw.isMaintenanceOver(now)) {
+        candidate = mw.getStartDateTime();
+        if (nextStart == null || candidate.isBefore(nextStart)) {
+          nextStart = candidate;
+        }
+      } else {
+        continue;
+      }
+      if (next == null || candidate.isBefore(next)) {
+        next = candidate;
+      }
+    }
+    put(new Entry(MaintenanceSummary.of(computerName, md, lastModified), active, next, nextStart, activeUntil,
+        offline ? 0 : remainingExecutors));
+  }
+
+  /**
+   * Updates the state of an agent from a persisted summary.
+   * As the single maintenance windows are not known, the state is derived from the earliest start
+   * and latest end. The definitions should be loaded when the first transition is reached.
+   *
+   * @param summary The summary of the agent
+   * @param now The current time
+   */
+  synchronized void update(@NonNull MaintenanceSummary summary, @NonNull LocalDateTime now) {
+    LocalDateTime start = summary.getEarliestStart();
+    LocalDateTime end = summary.getLatestEnd();
+    boolean active = false;
+    LocalDateTime next = null;
+    LocalDateTime nextStart = null;
+    LocalDateTime activeUntil = null;
+    if (start != null && end != null) {
+      if (!now.isAfter(start)) {
+        next = start;
+        nextStart = start;
+      } else if (now.isBefore(end)) {
+        active = true;
+        next = end;
+        activeUntil = end;
+      }
+    }
+    put(new Entry(summary, active, next, nextStart, activeUntil, 0));
+  }
+
+  private void put(Entry entry) {
+    String computerName = entry.summary().getComputerName();
+    Entry old = entry.summary().isEmpty() ? agents.remove(computerName) : agents.put(computerName, entry);
+    unregister(computerName, old);
+    if (!entry.summary().isEmpty()) {
+      if (entry.summary().getWindowCount() > 0) {
+        agentsWithWindows++;
+      }
+      if (entry.active()) {
+        agentsInMaintenance++;
+      }
+      if (entry.nextTransition() != null) {
+        transitions.add(new Transition(entry.nextTransition(), computerName));
+      }
+    }
+  }
+
+  /**
+   * Removes an agent from the index.
+   *
+   * @param computerName Name of the agent
+   */
+  synchronized void remove(@NonNull String computerName) {
+    unregister(computerName, agents.remove(computerName));
+  }
+
+  private void unregister(String computerName, @CheckForNull Entry old) {
+    if (old == null) {
+      return;
+    }
+    if (old.summary().getWindowCount() > 0) {
+      agentsWithWindows--;
+    }
+    if (old.active()) {
+      agentsInMaintenance--;
+    }
+    if (old.nextTransition() != null) {
+      transitions.remove(new Transition(old.nextTransition(), computerName));
+    }
+  }
+
+  /**
+   * Returns whether a maintenance window started or ended before the given time and the index was not yet updated.
+   *
+   * @param now The current time
+   * @return true when there are transitions to apply
+   */
+  synchronized boolean hasDueTransitions(@NonNull LocalDateTime now) {
+    return !transitions.isEmpty() && transitions.first().time().isBefore(now);
+  }
+
+  /**
+   * Removes all transitions that happened before the given time and returns the names of the
+   * affected agents. The state of those agents must be updated by the caller.
+   *
+   * @param now The current time
+   * @return List of agents that need to be updated
+   */
+  @NonNull
+  synchronized List<String> pollDueAgents(@NonNull LocalDateTime now) {
+    List<String> due = new ArrayList<>();
+    Iterator<Transition> iter = transitions.iterator();
+    while (iter.hasNext()) {
+      Transition transition = iter.next();
+      if (!transition.time().isBefore(now)) {
+        break;
+      }
+      iter.remove();
+      due.add(transition.computerName());
+    }
+    return due;
+  }
+
+  /**
+   * Returns the summary of an agent.
+   *
+   * @param computerName Name of the agent
+   * @return The summary or <code>null</code> when the agent has no maintenance definitions
+   */
+  @CheckForNull
+  public synchronized MaintenanceSummary getSummary(@NonNull String computerName) {
+    Entry entry = agents.get(computerName);
+    return entry != null ? entry.summary() : null;
+  }
+
+  /**
+   * Returns the start of the next maintenance window of an agent that has not yet started.
+   *
+   * @param computerName Name of the agent
+   * @return The start time or <code>null</code> when no maintenance window is upcoming
+   */
+  @CheckForNull
+  public synchronized LocalDateTime getNextStart(@NonNull String computerName) {
+    Entry entry = agents.get(computerName);
+    return entry != null ? entry.nextStart() : null;
+  }
+
+  /**
+   * Returns whether an agent has an active maintenance window.
+   *
+   * @param computerName Name of the agent
+   * @return true when a maintenance window is active
+   */
+  public synchronized boolean isActive(@NonNull String computerName) {
+    Entry entry = agents.get(computerName);
+    return entry != null && entry.active();
+  }
+
+  /**
+   * Returns the number of executors that remain available when the agent runs with reduced capacity.
+   * Only known after the definitions of the agent were loaded.
+   *
+   * @param computerName Name of the agent
+   * @return The remaining executors or 0 when the agent doesn't run with reduced capacity
+   */
+  public synchronized int getRemainingExecutors(@NonNull String computerName) {
+    Entry entry = agents.get(computerName);
+    return entry != null ? entry.remainingExecutors() : 0;
+  }
+
+  /**
+   * Returns the summaries of all agents that have maintenance definitions.
+   *
+   * @return Summaries of all agents
+   */
+  @NonNull
+  public synchronized List<MaintenanceSummary> getSummaries() {
+    List<MaintenanceSummary> summaries = new ArrayList<>(agents.size());
+    for (Entry entry : agents.values()) {
+      summaries.add(entry.summary());
+    }
+    return summaries;
+  }
+
+  /**
+   * Returns the indexed state of all agents that have maintenance definitions.
+   *
+   * @return The state of all agents
+   */
+  @NonNull
+  synchronized List<Entry> getEntries() {
+    return new ArrayList<>(agents.values());
+  }
+
+  /**
+   * Replaces the content of the index with the given summaries.
+   *
+   * @param summaries The summaries
+   * @param now The current time
+   */
+  synchronized void load(@NonNull Collection<MaintenanceSummary> summaries, @NonNull LocalDateTime now) {
+    agents.clear();
+    transitions.clear();
+    agentsWithWindows = 0;
+    agentsInMaintenance = 0;
+    for (MaintenanceSummary summary : summaries) {
+      update(summary, now);
+    }
+  }
+
+  public synchronized int getAgentsWithWindows() {
+    return agentsWithWindows;
+  }
+
+  public synchronized int getAgentsInMaintenance() {
+    return agentsInMaintenance;
+  }
+
+  /**
+   * The indexed state of an agent.
+   *
+   * @param summary The summary of the definitions
+   * @param active Whether a maintenance window is currently active
+   * @param nextTransition The next time the active state changes, or <code>null</code>
+   * @param nextStart The start of the next maintenance window that has not yet started, or <code>null</code>
+   * @param activeUntil The end of the active maintenance windows, or <code>null</code> when none is active
+   * @param remainingExecutors The executors that remain available during an active maintenance window with reduced
+   *     capacity, 0 when the agent doesn't run with reduced capacity
+   */
+  record Entry(MaintenanceSummary summary, boolean active, LocalDateTime nextTransition, LocalDateTime nextStart,
+               LocalDateTime activeUntil, int remainingExecutors) {
+  }
+
+  /**
+   * A point in time when the active state of an agent changes.
+   *
+   * @param time The time of the transition
+   * @param computerName Name of the agent
+   */
+  private record Transition(LocalDateTime time, String computerName) implements Comparable<Transition> {
+
+    @Override
+    public int compareTo(@NonNull Transition other) {
+      int compare = time.compareTo(other.time);
+      if (compare != 0) {
+        return compare;
+      }
+      return computerName.compareTo(other.computerName);
+    }
+  }
+}
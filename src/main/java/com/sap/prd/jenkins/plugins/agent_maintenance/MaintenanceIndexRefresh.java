@@ -0,0 +1,47 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Regularly applies maintenance windows that started or ended to the {@link MaintenanceIndex}.
+ * Applying a transition can load the definitions of an agent, so it runs in {@link MaintenanceSideEffects}. Code that
+ * runs under the queue lock only reads the index and sees a transition at most one interval late.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class MaintenanceIndexRefresh extends PeriodicWork {
+
+  /*
+   * The interval in seconds between two checks for transitions.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to set the refresh interval
+  @Restricted(NoExternalUse.class)
+  public static int INTERVAL_SECONDS = Integer.getInteger(MaintenanceIndexRefresh.class.getName() + ".INTERVAL_SECONDS", 10);
+
+  private final AtomicBoolean running = new AtomicBoolean();
+
+  @Override
+  public long getRecurrencePeriod() {
+    return TimeUnit.SECONDS.toMillis(Math.max(1, INTERVAL_SECONDS));
+  }
+
+  @Override
+  protected void doRun() throws Exception {
+    MaintenanceHelper helper = MaintenanceHelper.getInstance();
+    if (helper.hasDueTransitions() && running.compareAndSet(false, true)) {
+      MaintenanceSideEffects.execute(() -> {
+        try {
+          helper.applyDueTransitions();
+        } finally {
+          running.set(false);
+        }
+      });
+    }
+  }
+}
@@ -2,6 +2,7 @@ package com.sap.prd.jenkins.plugins.agent_maintenance;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
+import hudson.model.Api;
 import hudson.model.AutoCompletionCandidates;
 import hudson.model.Computer;
 import hudson.model.Label;
@@ -13,10 +14,15 @@ import hudson.slaves.AbstractCloudComputer;
 import hudson.slaves.SlaveComputer;
 import hudson.util.FormValidation;
 import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,6 +33,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.management.Badge;
 import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
@@ -34,12 +41,15 @@ import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest2;
 import org.kohsuke.stapler.StaplerResponse2;
 import org.kohsuke.stapler.bind.JavaScriptMethod;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
 import org.kohsuke.stapler.verb.POST;
 
 /**
  * Link on manage Jenkins page to list all maintenance windows of all agents.
  */
 @Extension
+@ExportedBean
 public class MaintenanceLink extends ManagementLink {
   private static final Logger LOGGER = Logger.getLogger(MaintenanceLink.class.getName());
 
@@ -91,6 +101,39 @@ public class MaintenanceLink extends ManagementLink {
     return agentList;
   }
 
+  /**
+   * Agents with maintenance definitions for the remote API.
+   * The list is taken from the index, so no maintenance definitions are loaded unless
+   * their windows are requested.
+   *
+   * @return List of actions for agents with maintenance definitions
+   */
+  @Exported(name = "agents")
+  public List<MaintenanceAction> getExportedAgents() {
+    List<MaintenanceAction> agentList = new ArrayList<>();
+    Jenkins j = Jenkins.get();
+    for (String computerName : MaintenanceHelper.getInstance().getAgentsWithMaintenanceDefinitions()) {
+      Computer computer = j.getComputer(computerName);
+      if (computer instanceof SlaveComputer slaveComputer) {
+        MaintenanceAction action = new MaintenanceAction(slaveComputer);
+        if (action.isVisible()) {
+          agentList.add(action);
+        }
+      }
+    }
+    return agentList;
+  }
+
+  /**
+   * Remote API access.
+   *
+   * @return The api object
+   */
+  public Api getApi() {
+    Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+    return new Api(this);
+  }
+
   private void setError(Throwable error) {
     this.error = error;
   }
@@ -113,15 +156,9 @@ public class MaintenanceLink extends ManagementLink {
 
   @Override
   public Badge getBadge() {
-    int active = 0;
-    int total = 0;
-    List<MaintenanceAction> mwList = getAgents();
-    for (MaintenanceAction ma : mwList) {
-      total++;
-      if (ma.hasActiveMaintenanceWindows()) {
-        active++;
-      }
-    }
+    MaintenanceHelper helper = MaintenanceHelper.getInstance();
+    int total = helper.getAgentsWithMaintenanceWindows();
+    int active = helper.getAgentsInMaintenance();
     if (total == 0) {
       return null;
     }
@@ -171,16 +208,19 @@ public class MaintenanceLink extends ManagementLink {
   @JavaScriptMethod
   public String[] deleteMultiple(JSONObject json) {
     Map<String, String> mwList = (Map<String, String>) JSONObject.toBean(json, Map.class);
-    List<String> deletedList = new ArrayList<>();
+    Map<String, List<String>> idsByComputer = new HashMap<>();
     for (Entry<String, String> entry : mwList.entrySet()) {
-      String computerName = entry.getValue();
+      idsByComputer.computeIfAbsent(entry.getValue(), c -> new ArrayList<>()).add(entry.getKey());
+    }
+    List<String> deletedList = new ArrayList<>();
+    for (Entry<String, List<String>> entry : idsByComputer.entrySet()) {
+      String computerName = entry.getKey();
       if (hasPermission(computerName)) {
-        String id = entry.getKey();
         try {
-          MaintenanceHelper.getInstance().deleteMaintenanceWindow(computerName, id);
-          deletedList.add(id);
+          // windows that don't exist anymore count as deleted
+          deletedList.addAll(MaintenanceHelper.getInstance().deleteMaintenanceWindows(computerName, entry.getValue()).keySet());
         } catch (Throwable e) {
-          LOGGER.log(Level.WARNING, "Error while deleting maintenance window", e);
+          LOGGER.log(Level.WARNING, "Error while deleting maintenance windows", e);
         }
       }
     }
@@ -269,6 +309,120 @@ public class MaintenanceLink extends ManagementLink {
     rsp.sendRedirect(".");
   }
 
+  /**
+   * Exports the maintenance windows of all agents the user can see.
+   * The output is written agent by agent, so the whole document is never held in memory.
+   *
+   * @param rsp StaplerResponse2
+   * @param format Either <code>ndjson</code> (default) or <code>csv</code>
+   * @throws IOException when reading the xml or writing the response failed
+   */
+  public void doExport(StaplerResponse2 rsp, @QueryParameter String format) throws IOException {
+    Jenkins j = Jenkins.get();
+    j.checkPermission(Jenkins.SYSTEM_READ);
+    MaintenanceTransfer transfer = new MaintenanceTransfer(MaintenanceTransfer.Format.of(format));
+    MaintenanceHelper helper = MaintenanceHelper.getInstance();
+    rsp.setContentType(transfer.getFormat().getContentType() + ";charset=UTF-8");
+    rsp.setHeader("Content-Disposition", "attachment; filename=maintenance-windows." + transfer.getFormat().getExtension());
+    PrintWriter out = rsp.getWriter();
+    transfer.writeHeader(out);
+    List<String> computerNames = helper.getAgentsWithMaintenanceDefinitions();
+    Collections.sort(computerNames);
+    for (String computerName : computerNames) {
+      Computer computer = j.getComputer(computerName);
+      if (computer instanceof SlaveComputer slaveComputer && new MaintenanceAction(slaveComputer).isVisible()) {
+        transfer.write(out, computerName, helper.getMaintenanceDefinitions(computerName));
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Exposes the maintenance state of all agents in the Prometheus text format.
+   * The metrics are rendered from the in-memory index, maintenance definitions are not read.
+   *
+   * @param rsp StaplerResponse2
+   * @throws IOException when writing the response failed
+   */
+  public void doPrometheus(StaplerResponse2 rsp) throws IOException {
+    Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+    rsp.setContentType(MaintenanceMetrics.CONTENT_TYPE);
+    PrintWriter out = rsp.getWriter();
+    MaintenanceMetrics.write(out);
+    out.flush();
+  }
+
+  /**
+   * Imports maintenance windows in the format written by {@link #doExport}.
+   * Importing the same windows again doesn't change anything. The definitions of each agent are
+   * saved at most once. When the input contains invalid records or agents that don't exist or that the
+   * user may not configure, nothing is imported. Therefore the whole input is read before anything is imported.
+   * New and updated windows are attributed to the importing user, only administrators keep the userid of the input.
+   *
+   * @param req StaplerRequest2
+   * @param rsp StaplerResponse2
+   * @param format Either <code>ndjson</code> or <code>csv</code>, defaults to the content type of the request
+   * @param dryRun When true, only the changes are reported
+   * @throws IOException when reading the request or the xml failed
+   */
+  @POST
+  public void doImport(StaplerRequest2 req, StaplerResponse2 rsp, @QueryParameter String format,
+                       @QueryParameter boolean dryRun) throws IOException {
+    Jenkins j = Jenkins.get();
+    // permissions are checked per agent
+    MaintenanceTransfer transfer = new MaintenanceTransfer(
+        MaintenanceTransfer.Format.of(format != null ? format : req.getContentType()));
+    transfer.setKeepUserid(j.hasPermission(Jenkins.ADMINISTER));
+    MaintenanceTransfer.ImportData data;
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(req.getInputStream(), StandardCharsets.UTF_8))) {
+      data = transfer.read(in);
+    }
+
+    JSONObject result = new JSONObject();
+    JSONArray errors = new JSONArray();
+    errors.addAll(data.getErrors());
+    JSONObject agents = new JSONObject();
+    int added = 0;
+    int updated = 0;
+    int unchanged = 0;
+    int skipped = 0;
+    for (String computerName : data.getAgents().keySet()) {
+      Computer computer = j.getComputer(computerName);
+      if (!(computer instanceof SlaveComputer) || !computer.hasAnyPermission(MaintenanceAction.CONFIGURE_AND_DISCONNECT)) {
+        errors.add("Agent " + computerName + " does not exist or you are not allowed to configure it");
+      }
+    }
+    if (errors.isEmpty()) {
+      MaintenanceHelper helper = MaintenanceHelper.getInstance();
+      for (Entry<String, MaintenanceDefinitions> entry : data.getAgents().entrySet()) {
+        String computerName = entry.getKey();
+        MaintenanceDiff diff = helper.mergeMaintenanceDefinitions(computerName, entry.getValue(), dryRun);
+        added += diff.getAdded().size();
+        updated += diff.getUpdated().size();
+        unchanged += diff.getUnchanged();
+        skipped += diff.getSkipped();
+        if (diff.hasChanges()) {
+          JSONObject agentResult = new JSONObject();
+          agentResult.put("added", diff.getAdded());
+          agentResult.put("updated", diff.getUpdated());
+          agents.put(computerName, agentResult);
+        }
+      }
+    } else {
+      rsp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+    }
+    result.put("dryRun", dryRun);
+    result.put("added", added);
+    result.put("updated", updated);
+    result.put("unchanged", unchanged);
+    result.put("skipped", skipped);
+    result.put("agents", agents);
+    result.put("errors", errors);
+    rsp.setContentType("application/json;charset=UTF-8");
+    result.write(rsp.getWriter());
+    rsp.getWriter().flush();
+  }
+
   public Class<MaintenanceWindow> getMaintenanceWindowClass() {
     return MaintenanceWindow.class;
   }
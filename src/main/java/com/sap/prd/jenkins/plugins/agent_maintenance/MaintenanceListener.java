@@ -0,0 +1,127 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Receives notifications about the lifecycle of maintenance windows.
+ * Listeners are called asynchronously in a single background thread, in the order the events happened, so they
+ * never delay the retention strategy or the queue. When listeners can't keep up and too many events are pending,
+ * further events are dropped.
+ */
+public abstract class MaintenanceListener implements ExtensionPoint {
+  private static final Logger LOGGER = Logger.getLogger(MaintenanceListener.class.getName());
+
+  /*
+   * The maximum number of events waiting to be delivered.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to set the capacity
+  @Restricted(NoExternalUse.class)
+  public static int QUEUE_CAPACITY = Integer.getInteger(MaintenanceListener.class.getName() + ".QUEUE_CAPACITY", 1000);
+
+  private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+      new LinkedBlockingQueue<>(QUEUE_CAPACITY),
+      new NamingThreadFactory(new DaemonThreadFactory(), MaintenanceListener.class.getSimpleName()),
+      (r, executor) -> LOGGER.log(Level.WARNING, "Too many pending maintenance events, dropping event"));
+
+  /**
+   * Called when a maintenance window was added to an agent.
+   *
+   * @param computerName Name of the agent
+   * @param mw The maintenance window
+   */
+  public void onCreated(@NonNull String computerName, @NonNull MaintenanceWindow mw) {
+  }
+
+  /**
+   * Called when a maintenance window was deleted from an agent before it ended.
+   *
+   * @param computerName Name of the agent
+   * @param mw The maintenance window
+   */
+  public void onDeleted(@NonNull String computerName, @NonNull MaintenanceWindow mw) {
+  }
+
+  /**
+   * Called when a maintenance window became active, the agent no longer accepts new tasks.
+   *
+   * @param computerName Name of the agent
+   * @param mw The maintenance window
+   */
+  public void onStarted(@NonNull String computerName, @NonNull MaintenanceWindow mw) {
+  }
+
+  /**
+   * Called when the agent waits for running builds to finish before it is disconnected.
+   *
+   * @param computerName Name of the agent
+   * @param mw The maintenance window
+   */
+  public void onDraining(@NonNull String computerName, @NonNull MaintenanceWindow mw) {
+  }
+
+  /**
+   * Called when the builds running on the agent were aborted.
+   *
+   * @param computerName Name of the agent
+   * @param mw The maintenance window
+   */
+  public void onBuildsAborted(@NonNull String computerName, @NonNull MaintenanceWindow mw) {
+  }
+
+  /**
+   * Called when the agent was disconnected because of the maintenance window.
+   *
+   * @param computerName Name of the agent
+   * @param mw The maintenance window
+   */
+  public void onDisconnected(@NonNull String computerName, @NonNull MaintenanceWindow mw) {
+  }
+
+  /**
+   * Called when a maintenance window is over and was removed from the agent.
+   *
+   * @param computerName Name of the agent
+   * @param mw The maintenance window
+   */
+  public void onEnded(@NonNull String computerName, @NonNull MaintenanceWindow mw) {
+  }
+
+  /**
+   * Delivers an event to all listeners in the background.
+   *
+   * @param event Calls the listener method of the event
+   */
+  static void fire(@NonNull Consumer<MaintenanceListener> event) {
+    ExtensionList<MaintenanceListener> listeners = ExtensionList.lookup(MaintenanceListener.class);
+    if (listeners.isEmpty()) {
+      return;
+    }
+    EXECUTOR.execute(() -> {
+      try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+        for (MaintenanceListener listener : listeners) {
+          try {
+            event.accept(listener);
+          } catch (Throwable t) {
+            LOGGER.log(Level.WARNING, "Maintenance listener " + listener.getClass().getName() + " failed", t);
+          }
+        }
+      }
+    });
+  }
+}
@@ -0,0 +1,138 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.LoadBalancer;
+import hudson.model.Queue;
+import hudson.model.queue.MappingWorksheet;
+import hudson.model.queue.MappingWorksheet.ExecutorChunk;
+import hudson.model.queue.MappingWorksheet.Mapping;
+import hudson.util.ConsistentHash;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * {@link LoadBalancer} that prefers agents whose next maintenance window starts last.
+ * Agents whose next maintenance window is further away than {@link #HORIZON_HOURS} are treated alike and are
+ * chosen the same way as by the default consistent hash load balancer. When none of the candidate agents has an
+ * upcoming maintenance window, the decision is left to the original load balancer.
+ */
+@Restricted(NoExternalUse.class)
+public class MaintenanceLoadBalancer extends LoadBalancer {
+  private static final Logger LOGGER = Logger.getLogger(MaintenanceLoadBalancer.class.getName());
+
+  /*
+   * Enables the maintenance aware load balancer.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to enable the load balancer
+  @Restricted(NoExternalUse.class)
+  public static boolean ENABLED = Boolean.getBoolean(MaintenanceLoadBalancer.class.getName() + ".ENABLED");
+
+  /*
+   * Agents whose next maintenance starts later than this number of hours are ranked equally.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to set the horizon
+  @Restricted(NoExternalUse.class)
+  public static int HORIZON_HOURS = Integer.getInteger(MaintenanceLoadBalancer.class.getName() + ".HORIZON_HOURS", 24);
+
+  private final LoadBalancer delegate;
+
+  MaintenanceLoadBalancer(@NonNull LoadBalancer delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * Installs the load balancer when enabled.
+   */
+  @Initializer(after = InitMilestone.JOB_CONFIG_ADAPTED)
+  public static void install() {
+    if (!ENABLED) {
+      return;
+    }
+    Queue queue = Jenkins.get().getQueue();
+    LoadBalancer current = queue.getLoadBalancer();
+    if (!(current instanceof MaintenanceLoadBalancer)) {
+      queue.setLoadBalancer(new MaintenanceLoadBalancer(current));
+      LOGGER.log(Level.INFO, "Installed maintenance aware load balancer");
+    }
+  }
+
+  @Override
+  @CheckForNull
+  public Mapping map(@NonNull Queue.Task task, MappingWorksheet worksheet) {
+    MaintenanceHelper helper = MaintenanceHelper.getInstance();
+    LocalDateTime now = LocalDateTime.now();
+    Map<ExecutorChunk, Long> runways = new HashMap<>();
+    boolean maintenanceAhead = false;
+    for (ExecutorChunk ec : worksheet.executors) {
+      long runway = getRunway(helper, ec, now);
+      runways.put(ec, runway);
+      maintenanceAhead |= runway < Long.MAX_VALUE;
+    }
+    if (!maintenanceAhead) {
+      return delegate.map(task, worksheet);
+    }
+
+    List<List<ExecutorChunk>> candidates = new ArrayList<>();
+    for (int i = 0; i < worksheet.works.size(); i++) {
+      ConsistentHash<ExecutorChunk> hash = new ConsistentHash<>(ExecutorChunk::getName);
+      Map<ExecutorChunk, Integer> toAdd = new HashMap<>();
+      for (ExecutorChunk ec : worksheet.works(i).applicableExecutorChunks()) {
+        toAdd.put(ec, ec.size() * 100);
+      }
+      hash.addAll(toAdd);
+      List<ExecutorChunk> ordered = new ArrayList<>();
+      for (ExecutorChunk ec : hash.list(i == 0 ? task.getAffinityKey() : task.getAffinityKey() + i)) {
+        ordered.add(ec);
+      }
+      // stable, so agents with the same runway keep the consistent hash order
+      ordered.sort(Comparator.comparing(runways::get, Comparator.reverseOrder()));
+      candidates.add(ordered);
+    }
+    Mapping m = worksheet.new Mapping();
+    return assignGreedily(m, candidates, 0) ? m : null;
+  }
+
+  private static boolean assignGreedily(Mapping m, List<List<ExecutorChunk>> candidates, int i) {
+    if (i == candidates.size()) {
+      return true;
+    }
+    for (ExecutorChunk ec : candidates.get(i)) {
+      m.assign(i, ec);
+      if (m.isPartiallyValid() && assignGreedily(m, candidates, i + 1)) {
+        return true;
+      }
+    }
+    m.assign(i, null);
+    return false;
+  }
+
+  /**
+   * Returns the minutes until the next maintenance window of the agent starts, capped to the horizon.
+   * Only the index is read, as the load balancer runs under the queue lock.
+   */
+  private static long getRunway(MaintenanceHelper helper, ExecutorChunk ec, LocalDateTime now) {
+    if (ec.computer == null) {
+      return Long.MAX_VALUE;
+    }
+    LocalDateTime nextStart = helper.getNextMaintenanceStart(ec.computer.getName());
+    if (nextStart == null) {
+      return Long.MAX_VALUE;
+    }
+    long minutes = Duration.between(now, nextStart).toMinutes();
+    return minutes >= HORIZON_HOURS * 60L ? Long.MAX_VALUE : minutes;
+  }
+}
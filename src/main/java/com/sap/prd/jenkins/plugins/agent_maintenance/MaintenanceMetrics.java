@@ -0,0 +1,200 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Label;
+import hudson.model.Node;
+import java.io.PrintWriter;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Writes the maintenance state of all agents in the Prometheus text format.
+ * Everything is taken from the index and the in-memory nodes, so a scrape doesn't read maintenance definitions.
+ * Maintenance windows that started or ended are applied to the index in the background by {@link MaintenanceIndexRefresh}.
+ */
+@Restricted(NoExternalUse.class)
+public final class MaintenanceMetrics {
+
+  static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=UTF-8";
+
+  static final Timing STORE_LOAD = new Timing("store_load", "Time spent loading maintenance definitions");
+  static final Timing STORE_SAVE = new Timing("store_save", "Time spent saving maintenance definitions");
+  static final Timing RETENTION_CHECK = new Timing("retention_check", "Time spent in checks of the retention strategy");
+  static final LongAdder REQUEUED = new LongAdder();
+  static final LongAdder REQUEUE_SKIPPED = new LongAdder();
+
+  private MaintenanceMetrics() {
+  }
+
+  /**
+   * Writes all metrics.
+   *
+   * @param out The writer
+   */
+  static void write(@NonNull PrintWriter out) {
+    Jenkins j = Jenkins.get();
+    LocalDateTime now = LocalDateTime.now();
+    List<MaintenanceIndex.Entry> entries = MaintenanceHelper.getInstance().getIndexEntries();
+    entries.sort((e1, e2) -> e1.summary().getComputerName().compareTo(e2.summary().getComputerName()));
+
+    Map<String, int[]> labels = new TreeMap<>();
+    for (Node node : j.getNodes()) {
+      for (Label label : node.getAssignedLabels()) {
+        if (label != node.getSelfLabel()) {
+          labels.computeIfAbsent(label.getName(), l -> new int[2])[0]++;
+        }
+      }
+    }
+
+    header(out, "agent_maintenance_active", "Whether a maintenance window of the agent is active");
+    for (MaintenanceIndex.Entry entry : entries) {
+      sample(out, "agent_maintenance_active", "agent", entry.summary().getComputerName(), entry.active() ? 1 : 0);
+      Node node = entry.active() ? j.getNode(entry.summary().getComputerName()) : null;
+      if (node != null) {
+        for (Label label : node.getAssignedLabels()) {
+          int[] counts = labels.get(label.getName());
+          if (counts != null) {
+            counts[1]++;
+          }
+        }
+      }
+    }
+    header(out, "agent_maintenance_next_start_seconds", "Seconds until the next maintenance window of the agent starts");
+    for (MaintenanceIndex.Entry entry : entries) {
+      if (entry.nextStart() != null) {
+        sample(out, "agent_maintenance_next_start_seconds", "agent", entry.summary().getComputerName(),
+            Math.max(0, Duration.between(now, entry.nextStart()).getSeconds()));
+      }
+    }
+    header(out, "agent_maintenance_remaining_seconds", "Seconds until the active maintenance windows of the agent end");
+    for (MaintenanceIndex.Entry entry : entries) {
+      if (entry.active() && entry.activeUntil() != null) {
+        sample(out, "agent_maintenance_remaining_seconds", "agent", entry.summary().getComputerName(),
+            Math.max(0, Duration.between(now, entry.activeUntil()).getSeconds()));
+      }
+    }
+    header(out, "agent_maintenance_scheduled_windows", "Number of scheduled maintenance windows of the agent");
+    for (MaintenanceIndex.Entry entry : entries) {
+      sample(out, "agent_maintenance_scheduled_windows", "agent", entry.summary().getComputerName(),
+          entry.summary().getWindowCount());
+    }
+    header(out, "agent_maintenance_recurring_windows", "Number of recurring maintenance windows of the agent");
+    for (MaintenanceIndex.Entry entry : entries) {
+      sample(out, "agent_maintenance_recurring_windows", "agent", entry.summary().getComputerName(),
+          entry.summary().getRecurringCount());
+    }
+
+    header(out, "agent_maintenance_deferred", "1 when the maintenance of the agent waits for other agents of its labels, 0 otherwise");
+    MaintenanceConcurrency concurrency = MaintenanceConcurrency.get();
+    for (MaintenanceIndex.Entry entry : entries) {
+      sample(out, "agent_maintenance_deferred", "agent", entry.summary().getComputerName(),
+          concurrency.isDeferred(entry.summary().getComputerName()) ? 1 : 0);
+    }
+
+    header(out, "agent_maintenance_drain_lead_time_seconds",
+        "Seconds before a maintenance window the agent stops accepting tasks, computed from the durations of recent tasks");
+    DrainLeadTime drainLeadTime = DrainLeadTime.get();
+    for (MaintenanceIndex.Entry entry : entries) {
+      Duration leadTime = drainLeadTime.getLeadTime(entry.summary().getComputerName());
+      if (leadTime != null) {
+        sample(out, "agent_maintenance_drain_lead_time_seconds", "agent", entry.summary().getComputerName(), leadTime.getSeconds());
+      }
+    }
+
+    header(out, "agent_maintenance_label_agents", "Number of agents with the label");
+    for (Map.Entry<String, int[]> label : labels.entrySet()) {
+      sample(out, "agent_maintenance_label_agents", "label", label.getKey(), label.getValue()[0]);
+    }
+    header(out, "agent_maintenance_label_active", "Number of agents with the label that have an active maintenance window");
+    for (Map.Entry<String, int[]> label : labels.entrySet()) {
+      sample(out, "agent_maintenance_label_active", "label", label.getKey(), label.getValue()[1]);
+    }
+
+    STORE_LOAD.write(out);
+    STORE_SAVE.write(out);
+    RETENTION_CHECK.write(out);
+    gauge(out, "agent_maintenance_side_effects_pending", "Number of maintenance side effects waiting to be started",
+        MaintenanceSideEffects.getPendingCount());
+    gauge(out, "agent_maintenance_side_effects_running", "Number of maintenance side effects that are running",
+        MaintenanceSideEffects.getRunningCount());
+    MaintenanceSideEffects.WAIT.write(out);
+    MaintenanceSideEffects.RUN.write(out);
+
+    MaintenanceDisconnector disconnector = MaintenanceDisconnector.get();
+    gauge(out, "agent_maintenance_disconnects_pending", "Number of agents waiting to be disconnected for maintenance",
+        disconnector.getPendingCount());
+    gauge(out, "agent_maintenance_disconnects_in_progress", "Number of agents being disconnected for maintenance",
+        disconnector.getInProgressCount());
+    gauge(out, "agent_maintenance_reconnects_pending", "Number of agents waiting to be launched after maintenance",
+        MaintenanceReconnector.get().getPendingCount());
+    counter(out, "agent_maintenance_disconnects_total", "Agents disconnected for maintenance from the disconnect queue",
+        MaintenanceDisconnector.DISCONNECTED);
+    counter(out, "agent_maintenance_requeued_total", "Builds scheduled again after they were aborted for maintenance", REQUEUED);
+    counter(out, "agent_maintenance_requeue_skipped_total",
+        "Builds aborted for maintenance that were not scheduled again, e.g. because they were already retried too often",
+        REQUEUE_SKIPPED);
+  }
+
+  private static void header(PrintWriter out, String name, String help) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(" gauge\n");
+  }
+
+  private static void gauge(PrintWriter out, String name, String help, long value) {
+    header(out, name, help);
+    out.append(name).append(' ').append(Long.toString(value)).append('\n');
+  }
+
+  private static void counter(PrintWriter out, String name, String help, LongAdder value) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(" counter\n");
+    out.append(name).append(' ').append(Long.toString(value.sum())).append('\n');
+  }
+
+  private static void sample(PrintWriter out, String name, String labelName, String labelValue, long value) {
+    out.append(name).append('{').append(labelName).append("=\"").append(escape(labelValue)).append("\"} ")
+        .append(Long.toString(value)).append('\n');
+  }
+
+  static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  /**
+   * Counts calls of an operation and the time spent in them.
+   */
+  static final class Timing {
+    private final String name;
+    private final String help;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    Timing(String name, String help) {
+      this.name = "agent_maintenance_" + name + "_seconds";
+      this.help = help;
+    }
+
+    void record(long elapsedNanos) {
+      count.increment();
+      nanos.add(elapsedNanos);
+    }
+
+    long getCount() {
+      return count.sum();
+    }
+
+    void write(PrintWriter out) {
+      out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+      out.append("# TYPE ").append(name).append(" summary\n");
+      out.append(name).append("_count ").append(Long.toString(count.sum())).append('\n');
+      out.append(name).append("_sum ").append(Double.toString(nanos.sum() / 1e9)).append('\n');
+    }
+  }
+}
@@ -5,6 +5,7 @@ import hudson.Extension;
 import hudson.model.Node;
 import hudson.model.Slave;
 import hudson.slaves.AbstractCloudSlave;
+import java.util.Objects;
 import jenkins.model.NodeListener;
 
 /** Listener to react on events for agents. */
@@ -16,6 +17,7 @@ public class MaintenanceNodeListener extends NodeListener {
   protected void onCreated(@NonNull Node node) {
     if (node instanceof Slave && !(node instanceof AbstractCloudSlave)) {
       helper.createAgent(node.getNodeName());
+      MaintenanceConfiguration.getInstance().applySchedules(node);
       if (MaintenanceConfiguration.getInstance().isInjectRetentionStrategy()) {
         helper.injectRetentionStrategy(node.toComputer());
       }
@@ -32,8 +34,13 @@ public class MaintenanceNodeListener extends NodeListener {
   @Override
   protected void onUpdated(@NonNull Node oldNode, @NonNull Node newNode) {
     if (newNode instanceof Slave && !(newNode instanceof AbstractCloudSlave)) {
-      if (!oldNode.getNodeName().equals(newNode.getNodeName())) {
+      boolean renamed = !oldNode.getNodeName().equals(newNode.getNodeName());
+      if (renamed) {
         helper.renameAgent(oldNode.getNodeName(), newNode.getNodeName());
+        MaintenanceConfiguration.getInstance().renameAgent(oldNode.getNodeName(), newNode.getNodeName());
+      }
+      if (renamed || !Objects.equals(oldNode.getLabelString(), newNode.getLabelString())) {
+        MaintenanceConfiguration.getInstance().applySchedules(newNode);
       }
       if (MaintenanceConfiguration.getInstance().isInjectRetentionStrategy()) {
         helper.injectRetentionStrategy(newNode.toComputer());
@@ -0,0 +1,101 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.Slave;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueTaskDispatcher;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Limits the number of running tasks on agents that run with reduced capacity during maintenance and
+ * keeps tasks off agents when they are not expected to finish before the next maintenance window starts.
+ * The start of the next maintenance window and the reduced capacity are taken from the index, so no maintenance windows
+ * are read while the queue is maintained. Tasks without an estimated duration are not blocked.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class MaintenanceQueueTaskDispatcher extends QueueTaskDispatcher {
+
+  /*
+   * Enables blocking tasks that would not finish before the next maintenance window. Reduced capacity is always enforced.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to enable the dispatcher
+  @Restricted(NoExternalUse.class)
+  public static boolean ENABLED = Boolean.getBoolean(MaintenanceQueueTaskDispatcher.class.getName() + ".ENABLED");
+
+  @Override
+  @CheckForNull
+  public CauseOfBlockage canTake(Node node, Queue.BuildableItem item) {
+    if (!(node instanceof Slave agent) || !(agent.getRetentionStrategy() instanceof AgentMaintenanceRetentionStrategy)) {
+      return null;
+    }
+    MaintenanceHelper helper = MaintenanceHelper.getInstance();
+    int remainingExecutors = helper.getRemainingExecutors(node.getNodeName());
+    if (remainingExecutors > 0) {
+      Computer computer = node.toComputer();
+      if (computer != null && computer.countBusy() >= remainingExecutors) {
+        return new ReducedCapacity(node.getNodeName(), remainingExecutors);
+      }
+    }
+    if (!ENABLED) {
+      return null;
+    }
+    LocalDateTime nextStart = helper.getNextMaintenanceStart(node.getNodeName());
+    if (nextStart == null) {
+      return null;
+    }
+    long estimatedDuration = item.task.getEstimatedDuration();
+    if (estimatedDuration <= 0) {
+      return null;
+    }
+    LocalDateTime now = LocalDateTime.now();
+    if (now.plus(Duration.ofMillis(estimatedDuration)).isAfter(nextStart)) {
+      return new MaintenanceAhead(node.getNodeName(), nextStart);
+    }
+    return null;
+  }
+
+  /**
+   * The agent runs with reduced capacity and all remaining executors are busy.
+   */
+  public static final class ReducedCapacity extends CauseOfBlockage {
+    private final String computerName;
+    private final int remainingExecutors;
+
+    ReducedCapacity(String computerName, int remainingExecutors) {
+      this.computerName = computerName;
+      this.remainingExecutors = remainingExecutors;
+    }
+
+    @Override
+    public String getShortDescription() {
+      return Messages.MaintenanceQueueTaskDispatcher_reducedCapacity(computerName, remainingExecutors);
+    }
+  }
+
+  /**
+   * The task would still be running when the next maintenance window of the agent starts.
+   */
+  public static final class MaintenanceAhead extends CauseOfBlockage {
+    private final String computerName;
+    private final LocalDateTime start;
+
+    MaintenanceAhead(String computerName, LocalDateTime start) {
+      this.computerName = computerName;
+      this.start = start;
+    }
+
+    @Override
+    public String getShortDescription() {
+      return Messages.MaintenanceQueueTaskDispatcher_maintenanceAhead(computerName, start.format(MaintenanceWindow.DATE_FORMATTER));
+    }
+  }
+}
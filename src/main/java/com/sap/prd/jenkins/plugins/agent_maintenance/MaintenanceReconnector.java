@@ -0,0 +1,223 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.slaves.SlaveComputer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Brings agents online again after their maintenance window ended.
+ * Instead of launching all agents whose maintenance window ends at the same time together, each agent waits a random
+ * delay of up to {@link #JITTER_SECONDS} and at most {@link #MAX_CONCURRENT} agents are launched at the same time.
+ * Agents that are needed by more items in the queue are launched first. When a launch fails, the agent is tried
+ * again with an increasing delay of up to {@link #MAX_BACKOFF_MINUTES}.
+ */
+@Restricted(NoExternalUse.class)
+public final class MaintenanceReconnector {
+  private static final Logger LOGGER = Logger.getLogger(MaintenanceReconnector.class.getName());
+
+  /*
+   * Enables that agents are launched by the reconnector instead of the regular retention strategy after maintenance.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to enable the reconnector
+  @Restricted(NoExternalUse.class)
+  public static boolean ENABLED = Boolean.getBoolean(MaintenanceReconnector.class.getName() + ".ENABLED");
+
+  /*
+   * The maximum number of agents that are launched at the same time.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to set the concurrency
+  @Restricted(NoExternalUse.class)
+  public static int MAX_CONCURRENT = Integer.getInteger(MaintenanceReconnector.class.getName() + ".MAX_CONCURRENT", 5);
+
+  /*
+   * The maximum random delay in seconds before an agent is launched.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to set the jitter
+  @Restricted(NoExternalUse.class)
+  public static int JITTER_SECONDS = Integer.getInteger(MaintenanceReconnector.class.getName() + ".JITTER_SECONDS", 30);
+
+  /*
+   * The maximum delay in minutes before a failed launch is tried again.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to set the backoff
+  @Restricted(NoExternalUse.class)
+  public static int MAX_BACKOFF_MINUTES = Integer.getInteger(MaintenanceReconnector.class.getName() + ".MAX_BACKOFF_MINUTES", 10);
+
+  private static final long BACKOFF_BASE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private static final MaintenanceReconnector INSTANCE = new MaintenanceReconnector();
+
+  private final Map<String, Reconnect> reconnects = new HashMap<>();
+  private final AtomicBoolean tickRunning = new AtomicBoolean();
+  private ScheduledFuture<?> task;
+
+  MaintenanceReconnector() {
+  }
+
+  public static MaintenanceReconnector get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Schedules the launch of an agent whose maintenance window ended.
+   *
+   * @param c The agent
+   * @return false when the reconnector is disabled and the regular retention strategy should launch the agent
+   */
+  boolean submit(@NonNull SlaveComputer c) {
+    if (!ENABLED) {
+      return false;
+    }
+    synchronized (this) {
+      reconnects.computeIfAbsent(c.getName(), n -> new Reconnect(System.currentTimeMillis() + jitter()));
+      if (task == null) {
+        task = Timer.get().scheduleWithFixedDelay(this::scheduleNext, 1, 1, TimeUnit.SECONDS);
+      }
+    }
+    return true;
+  }
+
+  private static long jitter() {
+    return JITTER_SECONDS > 0 ? ThreadLocalRandom.current().nextLong(TimeUnit.SECONDS.toMillis(JITTER_SECONDS)) : 0;
+  }
+
+  static long backoff(int failures) {
+    long max = TimeUnit.MINUTES.toMillis(MAX_BACKOFF_MINUTES);
+    long delay = BACKOFF_BASE_MILLIS << Math.min(failures - 1, 20);
+    return Math.min(delay, max);
+  }
+
+  /*
+   * Runs the next tick in the background unless the previous tick is still running, so that the shared timer
+   * threads are not blocked.
+   */
+  private void scheduleNext() {
+    if (tickRunning.compareAndSet(false, true)) {
+      MaintenanceSideEffects.execute(() -> {
+        try {
+          launchNext();
+        } finally {
+          tickRunning.set(false);
+        }
+      });
+    }
+  }
+
+  /**
+   * Checks the running launches and launches the next agents that are due.
+   * Agents whose maintenance window is still active according to the index keep waiting.
+   */
+  synchronized void launchNext() {
+    long now = System.currentTimeMillis();
+    int running = 0;
+    List<SlaveComputer> due = new ArrayList<>();
+    for (Iterator<Map.Entry<String, Reconnect>> it = reconnects.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<String, Reconnect> entry = it.next();
+      Reconnect reconnect = entry.getValue();
+      if (!(Jenkins.get().getComputer(entry.getKey()) instanceof SlaveComputer c) || c.isOnline()
+          || !(c.getOfflineCause() instanceof MaintenanceOfflineCause)) {
+        it.remove();
+        continue;
+      }
+      if (isInMaintenance(entry.getKey())) {
+        continue;
+      }
+      if (reconnect.launch != null) {
+        if (!reconnect.launch.isDone()) {
+          running++;
+          continue;
+        }
+        reconnect.launch = null;
+        reconnect.failures++;
+        reconnect.notBefore = now + backoff(reconnect.failures) + jitter();
+        LOGGER.log(Level.INFO, "Launching agent {0} after maintenance failed {1} times, trying again in {2} seconds",
+            new Object[] { c.getName(), reconnect.failures, (reconnect.notBefore - now) / 1000 });
+      }
+      if (reconnect.notBefore <= now && !c.isConnecting()) {
+        due.add(c);
+      }
+    }
+    int slots = Math.max(1, MAX_CONCURRENT) - running;
+    if (slots > 0 && !due.isEmpty()) {
+      if (due.size() > slots) {
+        Map<SlaveComputer, Integer> demand = getDemand(due);
+        due.sort(Comparator.comparing((SlaveComputer c) -> demand.get(c)).reversed()
+            .thenComparingLong(c -> reconnects.get(c.getName()).notBefore));
+      }
+      for (SlaveComputer c : due.subList(0, Math.min(slots, due.size()))) {
+        LOGGER.log(Level.FINE, "Launching agent {0} after maintenance", c.getName());
+        reconnects.get(c.getName()).launch = c.connect(false);
+      }
+    }
+    if (reconnects.isEmpty() && task != null) {
+      task.cancel(false);
+      task = null;
+    }
+  }
+
+  private static boolean isInMaintenance(String computerName) {
+    MaintenanceHelper helper = MaintenanceHelper.getInstance();
+    return helper.isInMaintenance(computerName) && helper.getRemainingExecutors(computerName) == 0;
+  }
+
+  /*
+   * Counts for each agent the buildable items in the queue it could run.
+   */
+  private static Map<SlaveComputer, Integer> getDemand(List<SlaveComputer> computers) {
+    List<Queue.BuildableItem> items = Queue.getInstance().getBuildableItems();
+    Map<SlaveComputer, Integer> demand = new HashMap<>();
+    for (SlaveComputer c : computers) {
+      int count = 0;
+      Node node = c.getNode();
+      if (node != null) {
+        for (Queue.BuildableItem item : items) {
+          Label label = item.getAssignedLabel();
+          if (label == null ? node.getMode() == Node.Mode.NORMAL : label.contains(node)) {
+            count++;
+          }
+        }
+      }
+      demand.put(c, count);
+    }
+    return demand;
+  }
+
+  /**
+   * Returns the number of agents that wait to be launched or are being launched after maintenance.
+   *
+   * @return number of agents
+   */
+  public synchronized int getPendingCount() {
+    return reconnects.size();
+  }
+
+  private static final class Reconnect {
+    private long notBefore;
+    private int failures;
+    private Future<?> launch;
+
+    Reconnect(long notBefore) {
+      this.notBefore = notBefore;
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Cause;
+import hudson.model.CauseAction;
+import hudson.model.Executor;
+import hudson.model.Job;
+import hudson.model.ParametersAction;
+import hudson.model.Queue;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.ParameterizedJobMixIn;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Schedules builds again that were aborted because their agent went into maintenance.
+ * The new build gets the same parameters and causes as the aborted build. Builds are scheduled again at most
+ * {@link #MAX_ATTEMPTS} times in a row. As the agent doesn't accept tasks during the maintenance, the new build
+ * runs on another agent or waits until the maintenance is over.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class MaintenanceRequeue extends RunListener<Run<?, ?>> {
+  private static final Logger LOGGER = Logger.getLogger(MaintenanceRequeue.class.getName());
+
+  /*
+   * Enables scheduling aborted builds again.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to enable scheduling aborted builds again
+  @Restricted(NoExternalUse.class)
+  public static boolean ENABLED = Boolean.getBoolean(MaintenanceRequeue.class.getName() + ".ENABLED");
+
+  /*
+   * The maximum number of times a build is scheduled again.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to set the maximum attempts
+  @Restricted(NoExternalUse.class)
+  public static int MAX_ATTEMPTS = Integer.getInteger(MaintenanceRequeue.class.getName() + ".MAX_ATTEMPTS", 3);
+
+  private static final Set<String> aborted = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Remembers the build running on the executor before it is aborted for maintenance.
+   *
+   * @param executor The executor that is interrupted
+   */
+  static void aborting(@NonNull Executor executor) {
+    if (!ENABLED) {
+      return;
+    }
+    Run<?, ?> run = getRun(executor.getCurrentExecutable());
+    if (run != null) {
+      aborted.add(run.getExternalizableId());
+    }
+  }
+
+  @CheckForNull
+  private static Run<?, ?> getRun(@CheckForNull Queue.Executable executable) {
+    if (executable instanceof Run<?, ?> run) {
+      return run;
+    }
+    // e.g. the node block of a pipeline
+    if (executable != null && executable.getParentExecutable() instanceof Run<?, ?> run) {
+      return run;
+    }
+    return null;
+  }
+
+  @Override
+  public void onCompleted(Run<?, ?> run, @NonNull TaskListener listener) {
+    if (!aborted.remove(run.getExternalizableId()) || run.getResult() != Result.ABORTED) {
+      return;
+    }
+    RequeueCause previous = findCause(run);
+    int attempt = previous != null ? previous.getAttempt() + 1 : 1;
+    if (attempt > MAX_ATTEMPTS) {
+      LOGGER.log(Level.INFO, "Not scheduling {0} again, it was already scheduled {1} times", new Object[] { run, MAX_ATTEMPTS });
+      MaintenanceMetrics.REQUEUE_SKIPPED.increment();
+      return;
+    }
+    Job<?, ?> job = run.getParent();
+    List<Action> actions = new ArrayList<>();
+    List<Cause> causes = new ArrayList<>();
+    for (Cause cause : run.getCauses()) {
+      if (!(cause instanceof RequeueCause)) {
+        causes.add(cause);
+      }
+    }
+    causes.add(new RequeueCause(run.getExternalizableId(), attempt));
+    actions.add(new CauseAction(causes));
+    ParametersAction parameters = run.getAction(ParametersAction.class);
+    if (parameters != null) {
+      actions.add(parameters);
+    }
+    Queue.Item item = ParameterizedJobMixIn.scheduleBuild2(job, 0, actions.toArray(new Action[0]));
+    if (item != null) {
+      LOGGER.log(Level.INFO, "Scheduled {0} again after it was aborted for maintenance", run);
+      MaintenanceMetrics.REQUEUED.increment();
+    } else {
+      LOGGER.log(Level.WARNING, "Failed to schedule {0} again after it was aborted for maintenance", run);
+      MaintenanceMetrics.REQUEUE_SKIPPED.increment();
+    }
+  }
+
+  @CheckForNull
+  private static RequeueCause findCause(Run<?, ?> run) {
+    for (Cause cause : run.getCauses()) {
+      if (cause instanceof RequeueCause requeueCause) {
+        return requeueCause;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The build was scheduled again after the previous build was aborted for maintenance.
+   */
+  public static class RequeueCause extends Cause {
+    private final String abortedBuild;
+    private final int attempt;
+
+    RequeueCause(String abortedBuild, int attempt) {
+      this.abortedBuild = abortedBuild;
+      this.attempt = attempt;
+    }
+
+    public String getAbortedBuild() {
+      return abortedBuild;
+    }
+
+    public int getAttempt() {
+      return attempt;
+    }
+
+    @Override
+    public String getShortDescription() {
+      return "Scheduled again after " + abortedBuild + " was aborted for agent maintenance";
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof RequeueCause other && abortedBuild.equals(other.abortedBuild);
+    }
+
+    @Override
+    public int hashCode() {
+      return abortedBuild.hashCode();
+    }
+  }
+}
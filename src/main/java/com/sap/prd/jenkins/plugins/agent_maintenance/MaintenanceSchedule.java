@@ -0,0 +1,178 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Slave;
+import hudson.slaves.AbstractCloudSlave;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import jenkins.model.Jenkins;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * Maintenance windows that are declared in the global configuration, e.g. with Configuration as Code.
+ * The windows apply to a single agent, to all agents matching a label expression or to both.
+ */
+public class MaintenanceSchedule extends AbstractDescribableImpl<MaintenanceSchedule> {
+  private String agent;
+  private String label;
+  private List<MaintenanceWindow> scheduled = new ArrayList<>();
+  private List<RecurringMaintenanceWindow> recurring = new ArrayList<>();
+
+  @DataBoundConstructor
+  public MaintenanceSchedule() {
+  }
+
+  public String getAgent() {
+    return agent;
+  }
+
+  @DataBoundSetter
+  public void setAgent(String agent) {
+    this.agent = Util.fixEmptyAndTrim(agent);
+  }
+
+  public String getLabel() {
+    return label;
+  }
+
+  @DataBoundSetter
+  public void setLabel(String label) {
+    this.label = Util.fixEmptyAndTrim(label);
+  }
+
+  public List<MaintenanceWindow> getScheduled() {
+    return scheduled;
+  }
+
+  @DataBoundSetter
+  public void setScheduled(List<MaintenanceWindow> scheduled) {
+    this.scheduled = scheduled != null ? new ArrayList<>(scheduled) : new ArrayList<>();
+  }
+
+  public List<RecurringMaintenanceWindow> getRecurring() {
+    return recurring;
+  }
+
+  @DataBoundSetter
+  public void setRecurring(List<RecurringMaintenanceWindow> recurring) {
+    this.recurring = recurring != null ? new ArrayList<>(recurring) : new ArrayList<>();
+  }
+
+  protected Object readResolve() {
+    if (scheduled == null) {
+      scheduled = new ArrayList<>();
+    }
+    if (recurring == null) {
+      recurring = new ArrayList<>();
+    }
+    return this;
+  }
+
+  /**
+   * Returns the names of the agents this schedule applies to. Cloud agents are never included.
+   *
+   * @return Set of agent names
+   */
+  @NonNull
+  Set<String> getComputerNames() {
+    Set<String> computerNames = new LinkedHashSet<>();
+    Jenkins j = Jenkins.get();
+    if (agent != null && j.getNode(agent) instanceof Slave node && !(node instanceof AbstractCloudSlave)) {
+      computerNames.add(agent);
+    }
+    if (label != null) {
+      Label l = j.getLabel(label);
+      if (l != null) {
+        for (Node node : l.getNodes()) {
+          if (node instanceof Slave && !(node instanceof AbstractCloudSlave)) {
+            computerNames.add(node.getNodeName());
+          }
+        }
+      }
+    }
+    return computerNames;
+  }
+
+  /**
+   * Returns whether this schedule applies to an agent, based on its current name and labels.
+   * Cloud agents are never included.
+   *
+   * @param node The agent
+   * @return true when the windows of this schedule belong to the agent
+   */
+  boolean appliesTo(@NonNull Node node) {
+    if (!(node instanceof Slave) || node instanceof AbstractCloudSlave) {
+      return false;
+    }
+    if (node.getNodeName().equals(agent)) {
+      return true;
+    }
+    Label l = label != null ? Jenkins.get().getLabel(label) : null;
+    return l != null && l.contains(node);
+  }
+
+  /**
+   * Adds the maintenance windows of this schedule to the definitions of all agents it applies to.
+   *
+   * @param definitions The definitions by agent name
+   */
+  void addTo(@NonNull Map<String, MaintenanceDefinitions> definitions) {
+    for (String computerName : getComputerNames()) {
+      addTo(computerName, definitions.computeIfAbsent(computerName,
+          n -> new MaintenanceDefinitions(new TreeSet<>(), new HashSet<>())));
+    }
+  }
+
+  /**
+   * Adds the maintenance windows of this schedule to the definitions of an agent.
+   * Each agent gets its own copy of the windows, as windows carry state. The ids of the copies are
+   * derived from the agent name, so that they are unique but stable.
+   *
+   * @param computerName Name of the agent
+   * @param md The definitions of the agent
+   */
+  void addTo(@NonNull String computerName, @NonNull MaintenanceDefinitions md) {
+    for (MaintenanceWindow mw : scheduled) {
+      md.getScheduled().add(new MaintenanceWindow(mw.getStartDateTime(), mw.getEndDateTime(), mw.getTemplate(),
+          getId(computerName, mw.getId())));
+    }
+    for (RecurringMaintenanceWindow rmw : recurring) {
+      RecurringMaintenanceWindow copy = new RecurringMaintenanceWindow(rmw.getStartTimeSpec(), rmw.getReason(), rmw.isTakeOnline(),
+          rmw.isKeepUpWhenActive(), rmw.getMaxWaitMinutes(), Integer.toString(rmw.getDuration()), rmw.getUserid(),
+          getId(computerName, rmw.getId()), 0);
+      copy.setRemainingExecutors(rmw.getRemainingExecutors());
+      md.getRecurring().add(copy);
+    }
+  }
+
+  private static String getId(String computerName, String id) {
+    return UUID.nameUUIDFromBytes((computerName + "/" + id).getBytes(StandardCharsets.UTF_8)).toString();
+  }
+
+  /** Descriptor for Configuration as Code. */
+  @Extension
+  @Symbol("schedule")
+  public static class DescriptorImpl extends Descriptor<MaintenanceSchedule> {
+
+    @Override
+    @NonNull
+    public String getDisplayName() {
+      return "";
+    }
+  }
+}
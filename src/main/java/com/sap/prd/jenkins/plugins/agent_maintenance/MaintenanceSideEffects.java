@@ -0,0 +1,138 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Runs blocking side effects of the maintenance, like disconnecting agents, interrupting executors and writing files,
+ * so that the threads of the queue, the retention strategies and the shared Jenkins timer don't wait for slow
+ * channels or disks.
+ * On Java 21 and later each task runs in its own virtual thread, otherwise a small pool of platform threads is used.
+ * Tasks run as system.
+ */
+@Restricted(NoExternalUse.class)
+public final class MaintenanceSideEffects {
+  private static final Logger LOGGER = Logger.getLogger(MaintenanceSideEffects.class.getName());
+
+  /*
+   * Enables the use of virtual threads when the Java version supports them.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to disable virtual threads
+  @Restricted(NoExternalUse.class)
+  public static boolean VIRTUAL_THREADS = Boolean.parseBoolean(
+      System.getProperty(MaintenanceSideEffects.class.getName() + ".VIRTUAL_THREADS", "true"));
+
+  /*
+   * The number of platform threads when virtual threads are not used.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to set the number of threads
+  @Restricted(NoExternalUse.class)
+  public static int THREADS = Integer.getInteger(MaintenanceSideEffects.class.getName() + ".THREADS", 4);
+
+  static final MaintenanceMetrics.Timing WAIT = new MaintenanceMetrics.Timing("side_effect_wait",
+      "Time maintenance side effects waited before they were started");
+  static final MaintenanceMetrics.Timing RUN = new MaintenanceMetrics.Timing("side_effect_run",
+      "Time spent running maintenance side effects");
+
+  private static final AtomicInteger PENDING = new AtomicInteger();
+  private static final AtomicInteger RUNNING = new AtomicInteger();
+
+  private static final ExecutorService EXECUTOR = createExecutor();
+
+  private MaintenanceSideEffects() {
+  }
+
+  private static ExecutorService createExecutor() {
+    if (VIRTUAL_THREADS) {
+      try {
+        // Executors.newVirtualThreadPerTaskExecutor() is only available with Java 21
+        ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        LOGGER.log(Level.FINE, "Using virtual threads for maintenance side effects");
+        return executor;
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        LOGGER.log(Level.FINE, "Virtual threads are not available, using platform threads for maintenance side effects");
+      }
+    }
+    int threads = Math.max(1, THREADS);
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+        new NamingThreadFactory(new DaemonThreadFactory(), MaintenanceSideEffects.class.getSimpleName()));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Runs a side effect in the background.
+   *
+   * @param task The side effect
+   * @return The future of the task
+   */
+  @NonNull
+  static Future<?> execute(@NonNull Runnable task) {
+    return submit(() -> {
+      task.run();
+      return null;
+    });
+  }
+
+  /**
+   * Runs a side effect with a result in the background.
+   *
+   * @param task The side effect
+   * @param <T> The type of the result
+   * @return The future of the result
+   */
+  @NonNull
+  static <T> Future<T> submit(@NonNull Callable<T> task) {
+    long submitted = System.nanoTime();
+    PENDING.incrementAndGet();
+    return EXECUTOR.submit(() -> {
+      long started = System.nanoTime();
+      PENDING.decrementAndGet();
+      RUNNING.incrementAndGet();
+      WAIT.record(started - submitted);
+      try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+        return task.call();
+      } catch (Exception | Error e) {
+        LOGGER.log(Level.WARNING, "Maintenance side effect failed", e);
+        throw e;
+      } finally {
+        RUNNING.decrementAndGet();
+        RUN.record(System.nanoTime() - started);
+      }
+    });
+  }
+
+  /**
+   * Returns the number of side effects waiting to be started.
+   *
+   * @return number of tasks
+   */
+  static int getPendingCount() {
+    return PENDING.get();
+  }
+
+  /**
+   * Returns the number of side effects that are running.
+   *
+   * @return number of tasks
+   */
+  static int getRunningCount() {
+    return RUNNING.get();
+  }
+}
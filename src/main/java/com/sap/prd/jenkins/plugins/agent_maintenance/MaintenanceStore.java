@@ -0,0 +1,135 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Persists the maintenance definitions of agents.
+ * By default, the definitions are written to a file in the directory of each agent. Other implementations can
+ * be selected with the system property <code>com.sap.prd.jenkins.plugins.agent_maintenance.MaintenanceStore.STORE</code>
+ * set to the class name of the implementation.
+ * The definitions are cached by the plugin, so a store is only used when definitions are loaded for the first time
+ * and when they change.
+ */
+public abstract class MaintenanceStore implements ExtensionPoint {
+  private static final Logger LOGGER = Logger.getLogger(MaintenanceStore.class.getName());
+
+  /*
+   * The class name of the store to use.
+   */
+  @SuppressFBWarnings("MS_SHOULD_BE_FINAL") // Used to select the store
+  @Restricted(NoExternalUse.class)
+  public static String STORE = System.getProperty(MaintenanceStore.class.getName() + ".STORE", XmlMaintenanceStore.class.getName());
+
+  /**
+   * Loads the maintenance definitions of an agent.
+   *
+   * @param computerName Name of the agent
+   * @return The definitions or <code>null</code> when nothing is stored for the agent
+   * @throws IOException when reading failed
+   */
+  @CheckForNull
+  public abstract MaintenanceDefinitions load(@NonNull String computerName) throws IOException;
+
+  /**
+   * Saves the maintenance definitions of an agent.
+   * The caller holds the lock of the definitions.
+   *
+   * @param computerName Name of the agent
+   * @param md The definitions
+   * @throws IOException when writing failed
+   */
+  public abstract void save(@NonNull String computerName, @NonNull MaintenanceDefinitions md) throws IOException;
+
+  /**
+   * Deletes the maintenance definitions of an agent.
+   *
+   * @param computerName Name of the agent
+   * @throws IOException when deleting failed
+   */
+  public abstract void delete(@NonNull String computerName) throws IOException;
+
+  /**
+   * Returns a value that changes whenever the stored definitions of an agent change,
+   * e.g. the last modification time of a file.
+   *
+   * @param computerName Name of the agent
+   * @return The modification stamp, <code>0</code> when nothing is stored for the agent
+   */
+  public abstract long getLastModified(@NonNull String computerName);
+
+  /**
+   * Moves the maintenance definitions of an agent after it was renamed.
+   *
+   * @param oldName Old name of the agent
+   * @param newName New name of the agent
+   * @param md The definitions
+   * @throws IOException when writing failed
+   */
+  public void rename(@NonNull String oldName, @NonNull String newName, @NonNull MaintenanceDefinitions md) throws IOException {
+    save(newName, md);
+    delete(oldName);
+  }
+
+  /**
+   * Loads the maintenance definitions of several agents.
+   * Agents for which nothing is stored are not contained in the result.
+   *
+   * @param computerNames Names of the agents
+   * @return The definitions by agent name
+   * @throws IOException when reading failed
+   */
+  @NonNull
+  public Map<String, MaintenanceDefinitions> loadAll(@NonNull Collection<String> computerNames) throws IOException {
+    Map<String, MaintenanceDefinitions> result = new LinkedHashMap<>();
+    for (String computerName : computerNames) {
+      MaintenanceDefinitions md = load(computerName);
+      if (md != null) {
+        result.put(computerName, md);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Saves the maintenance definitions of several agents.
+   *
+   * @param definitions The definitions by agent name
+   * @throws IOException when writing failed
+   */
+  public void saveAll(@NonNull Map<String, MaintenanceDefinitions> definitions) throws IOException {
+    for (Map.Entry<String, MaintenanceDefinitions> entry : definitions.entrySet()) {
+      MaintenanceDefinitions md = entry.getValue();
+      synchronized (md) {
+        save(entry.getKey(), md);
+      }
+    }
+  }
+
+  /**
+   * Returns the configured store.
+   *
+   * @return The store
+   */
+  @NonNull
+  public static MaintenanceStore get() {
+    for (MaintenanceStore store : ExtensionList.lookup(MaintenanceStore.class)) {
+      if (store.getClass().getName().equals(STORE)) {
+        return store;
+      }
+    }
+    LOGGER.log(Level.WARNING, "Maintenance store {0} not found, using the default store", STORE);
+    return ExtensionList.lookupSingleton(XmlMaintenanceStore.class);
+  }
+}
@@ -0,0 +1,86 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.time.LocalDateTime;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Small summary of the maintenance definitions of an agent.
+ * Summaries of all agents are persisted together, so that pages listing all agents don't need to load
+ * every maintenance definitions file.
+ */
+@Restricted(NoExternalUse.class)
+public final class MaintenanceSummary {
+  private final String computerName;
+  private final int windowCount;
+  private final int recurringCount;
+  private final LocalDateTime earliestStart;
+  private final LocalDateTime latestEnd;
+  private final long lastModified;
+
+  MaintenanceSummary(String computerName, int windowCount, int recurringCount, LocalDateTime earliestStart,
+                     LocalDateTime latestEnd, long lastModified) {
+    this.computerName = computerName;
+    this.windowCount = windowCount;
+    this.recurringCount = recurringCount;
+    this.earliestStart = earliestStart;
+    this.latestEnd = latestEnd;
+    this.lastModified = lastModified;
+  }
+
+  /**
+   * Creates the summary for the given maintenance definitions.
+   * The caller must hold the lock on the definitions.
+   *
+   * @param computerName Name of the agent
+   * @param md The maintenance definitions of the agent
+   * @param lastModified Timestamp of the last modification of the persisted definitions
+   * @return The summary
+   */
+  static MaintenanceSummary of(@NonNull String computerName, @NonNull MaintenanceDefinitions md, long lastModified) {
+    LocalDateTime earliestStart = null;
+    LocalDateTime latestEnd = null;
+    for (MaintenanceWindow mw : md.getScheduled()) {
+      if (earliestStart == null || mw.getStartDateTime().isBefore(earliestStart)) {
+        earliestStart = mw.getStartDateTime();
+      }
+      if (latestEnd == null || mw.getEndDateTime().isAfter(latestEnd)) {
+        latestEnd = mw.getEndDateTime();
+      }
+    }
+    return new MaintenanceSummary(computerName, md.getScheduled().size(), md.getRecurring().size(),
+        earliestStart, latestEnd, lastModified);
+  }
+
+  public String getComputerName() {
+    return computerName;
+  }
+
+  public int getWindowCount() {
+    return windowCount;
+  }
+
+  public int getRecurringCount() {
+    return recurringCount;
+  }
+
+  @CheckForNull
+  public LocalDateTime getEarliestStart() {
+    return earliestStart;
+  }
+
+  @CheckForNull
+  public LocalDateTime getLatestEnd() {
+    return latestEnd;
+  }
+
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  boolean isEmpty() {
+    return windowCount == 0 && recurringCount == 0;
+  }
+}
@@ -0,0 +1,117 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import hudson.Util;
+import java.util.Objects;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * The settings of a maintenance window that don't depend on its time.
+ * Instances are immutable and interned, so all windows with the same settings share one instance. This is
+ * especially the case for the windows created from a recurring maintenance window, on all agents.
+ */
+@Restricted(NoExternalUse.class)
+public final class MaintenanceTemplate {
+  private static final Interner<MaintenanceTemplate> INTERNER = Interners.newWeakInterner();
+
+  private final String reason;
+  private final boolean takeOnline;
+  private final boolean keepUpWhenActive;
+  private final int maxWaitMinutes;
+  private final String userid;
+  private final int remainingExecutors;
+
+  private MaintenanceTemplate(String reason, boolean takeOnline, boolean keepUpWhenActive, int maxWaitMinutes, String userid,
+                              int remainingExecutors) {
+    this.reason = reason;
+    this.takeOnline = takeOnline;
+    this.keepUpWhenActive = keepUpWhenActive;
+    this.maxWaitMinutes = maxWaitMinutes;
+    this.userid = userid;
+    this.remainingExecutors = remainingExecutors;
+  }
+
+  /**
+   * Returns the shared template for the given settings.
+   *
+   * @param reason Reason
+   * @param takeOnline Take online at end of maintenance
+   * @param keepUpWhenActive Keep up while builds are running
+   * @param maxWaitMinutes Max waiting time before canceling running builds
+   * @param userid Userid that created the maintenance window
+   * @return The template
+   */
+  static MaintenanceTemplate of(String reason, boolean takeOnline, boolean keepUpWhenActive, int maxWaitMinutes, String userid) {
+    return of(reason, takeOnline, keepUpWhenActive, maxWaitMinutes, userid, 0);
+  }
+
+  /**
+   * Returns the shared template for the given settings.
+   *
+   * @param reason Reason
+   * @param takeOnline Take online at end of maintenance
+   * @param keepUpWhenActive Keep up while builds are running
+   * @param maxWaitMinutes Max waiting time before canceling running builds
+   * @param userid Userid that created the maintenance window
+   * @param remainingExecutors Number of executors that stay available, 0 takes the agent offline
+   * @return The template
+   */
+  static MaintenanceTemplate of(String reason, boolean takeOnline, boolean keepUpWhenActive, int maxWaitMinutes, String userid,
+                                int remainingExecutors) {
+    return INTERNER.intern(new MaintenanceTemplate(Util.intern(reason), takeOnline, keepUpWhenActive, maxWaitMinutes,
+        Util.intern(userid), Math.max(0, remainingExecutors)));
+  }
+
+  /**
+   * Returns the shared template with the same settings but a different number of remaining executors.
+   *
+   * @param remainingExecutors Number of executors that stay available
+   * @return The template
+   */
+  MaintenanceTemplate withRemainingExecutors(int remainingExecutors) {
+    return of(reason, takeOnline, keepUpWhenActive, maxWaitMinutes, userid, remainingExecutors);
+  }
+
+  public String getReason() {
+    return reason;
+  }
+
+  public boolean isTakeOnline() {
+    return takeOnline;
+  }
+
+  public boolean isKeepUpWhenActive() {
+    return keepUpWhenActive;
+  }
+
+  public int getMaxWaitMinutes() {
+    return maxWaitMinutes;
+  }
+
+  public String getUserid() {
+    return userid;
+  }
+
+  public int getRemainingExecutors() {
+    return remainingExecutors;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(reason, takeOnline, keepUpWhenActive, maxWaitMinutes, userid, remainingExecutors);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof MaintenanceTemplate other)) {
+      return false;
+    }
+    return takeOnline == other.takeOnline && keepUpWhenActive == other.keepUpWhenActive && maxWaitMinutes == other.maxWaitMinutes
+        && remainingExecutors == other.remainingExecutors && Objects.equals(reason, other.reason) && Objects.equals(userid, other.userid);
+  }
+}
@@ -0,0 +1,370 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Writes and reads the maintenance windows of many agents in a line based format.
+ * Each maintenance window is one record, so an export can be written agent by agent and
+ * an import can be read record by record without holding the whole document in memory.
+ * Supported formats are newline delimited JSON and CSV with a header line.
+ */
+@Restricted(NoExternalUse.class)
+public final class MaintenanceTransfer {
+
+  static final String TYPE_SCHEDULED = "scheduled";
+  static final String TYPE_RECURRING = "recurring";
+
+  private static final List<String> COLUMNS = List.of("computerName", "type", "id", "startTime", "endTime",
+      "startTimeSpec", "duration", "reason", "takeOnline", "keepUpWhenActive", "maxWaitMinutes", "userid", "remainingExecutors");
+
+  /** The supported formats. */
+  public enum Format {
+    NDJSON("application/x-ndjson", "ndjson"),
+    CSV("text/csv", "csv");
+
+    private final String contentType;
+    private final String extension;
+
+    Format(String contentType, String extension) {
+      this.contentType = contentType;
+      this.extension = extension;
+    }
+
+    public String getContentType() {
+      return contentType;
+    }
+
+    public String getExtension() {
+      return extension;
+    }
+
+    /**
+     * Returns the format for the given name or content type. Defaults to newline delimited JSON.
+     *
+     * @param name Name of the format or a content type
+     * @return The format
+     */
+    @NonNull
+    public static Format of(@CheckForNull String name) {
+      if (name != null && name.toLowerCase(Locale.ENGLISH).contains("csv")) {
+        return CSV;
+      }
+      return NDJSON;
+    }
+  }
+
+  private final Format format;
+  private boolean keepUserid;
+
+  public MaintenanceTransfer(@NonNull Format format) {
+    this.format = format;
+  }
+
+  /**
+   * Sets whether the userid of imported maintenance windows is taken from the input.
+   * Otherwise the windows are attributed to the current user.
+   *
+   * @param keepUserid true to keep the userid of the input
+   */
+  public void setKeepUserid(boolean keepUserid) {
+    this.keepUserid = keepUserid;
+  }
+
+  public Format getFormat() {
+    return format;
+  }
+
+  /**
+   * Writes the header, if the format has one.
+   *
+   * @param out The writer
+   * @throws IOException when writing fails
+   */
+  public void writeHeader(@NonNull Writer out) throws IOException {
+    if (format == Format.CSV) {
+      writeCsvRecord(out, COLUMNS);
+    }
+  }
+
+  /**
+   * Writes all maintenance windows of an agent.
+   * The definitions are copied while holding the lock, so that writing to a slow client doesn't block
+   * the agent.
+   *
+   * @param out The writer
+   * @param computerName Name of the agent
+   * @param md The maintenance definitions of the agent
+   * @throws IOException when writing fails
+   */
+  public void write(@NonNull Writer out, @NonNull String computerName, @NonNull MaintenanceDefinitions md) throws IOException {
+    List<MaintenanceWindow> scheduled;
+    List<RecurringMaintenanceWindow> recurring;
+    synchronized (md) {
+      scheduled = new ArrayList<>(md.getScheduled());
+      recurring = new ArrayList<>(md.getRecurring());
+    }
+    for (MaintenanceWindow mw : scheduled) {
+      Map<String, String> values = new HashMap<>();
+      values.put("computerName", computerName);
+      values.put("type", TYPE_SCHEDULED);
+      values.put("id", mw.getId());
+      values.put("startTime", mw.getStartTime());
+      values.put("endTime", mw.getEndTime());
+      values.put("reason", mw.getReason());
+      values.put("takeOnline", Boolean.toString(mw.isTakeOnline()));
+      values.put("keepUpWhenActive", Boolean.toString(mw.isKeepUpWhenActive()));
+      values.put("maxWaitMinutes", Integer.toString(mw.getMaxWaitMinutes()));
+      values.put("userid", mw.getUserid());
+      values.put("remainingExecutors", Integer.toString(mw.getRemainingExecutors()));
+      writeRecord(out, values);
+    }
+    for (RecurringMaintenanceWindow rmw : recurring) {
+      Map<String, String> values = new HashMap<>();
+      values.put("computerName", computerName);
+      values.put("type", TYPE_RECURRING);
+      values.put("id", rmw.getId());
+      values.put("startTimeSpec", rmw.getStartTimeSpec());
+      values.put("duration", Integer.toString(rmw.getDuration()));
+      values.put("reason", rmw.getReason());
+      values.put("takeOnline", Boolean.toString(rmw.isTakeOnline()));
+      values.put("keepUpWhenActive", Boolean.toString(rmw.isKeepUpWhenActive()));
+      values.put("maxWaitMinutes", rmw.getMaxWaitMinutes());
+      values.put("userid", rmw.getUserid());
+      values.put("remainingExecutors", Integer.toString(rmw.getRemainingExecutors()));
+      writeRecord(out, values);
+    }
+  }
+
+  private void writeRecord(Writer out, Map<String, String> values) throws IOException {
+    if (format == Format.CSV) {
+      List<String> fields = new ArrayList<>(COLUMNS.size());
+      for (String column : COLUMNS) {
+        fields.add(Util.fixNull(values.get(column)));
+      }
+      writeCsvRecord(out, fields);
+    } else {
+      JSONObject json = new JSONObject();
+      for (String column : COLUMNS) {
+        String value = values.get(column);
+        if (value != null) {
+          json.put(column, value);
+        }
+      }
+      out.write(json.toString());
+      out.write('\n');
+    }
+  }
+
+  private static void writeCsvRecord(Writer out, List<String> fields) throws IOException {
+    for (int i = 0; i < fields.size(); i++) {
+      if (i > 0) {
+        out.write(',');
+      }
+      String field = fields.get(i);
+      if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0) {
+        out.write('"');
+        out.write(field.replace("\"", "\"\""));
+        out.write('"');
+      } else {
+        out.write(field);
+      }
+    }
+    out.write("\r\n");
+  }
+
+  /**
+   * Reads maintenance windows and groups them by agent.
+   * Records that can't be parsed are reported in the result and are not part of the definitions.
+   * Within one agent, maintenance windows with the same content are only contained once.
+   *
+   * @param in The reader
+   * @return The parsed definitions
+   * @throws IOException when reading fails
+   */
+  @NonNull
+  public ImportData read(@NonNull BufferedReader in) throws IOException {
+    ImportData data = new ImportData();
+    Map<String, Integer> header = null;
+    int recordNumber = 0;
+    while (true) {
+      Map<String, String> values;
+      if (format == Format.CSV) {
+        List<String> fields = readCsvRecord(in);
+        if (fields == null) {
+          break;
+        }
+        recordNumber++;
+        if (fields.size() == 1 && fields.get(0).isBlank()) {
+          continue;
+        }
+        if (header == null) {
+          header = new HashMap<>();
+          for (int i = 0; i < fields.size(); i++) {
+            header.put(fields.get(i).trim(), i);
+          }
+          continue;
+        }
+        values = new HashMap<>();
+        for (String column : COLUMNS) {
+          Integer i = header.get(column);
+          if (i != null && i < fields.size()) {
+            values.put(column, Util.fixEmpty(fields.get(i)));
+          }
+        }
+      } else {
+        String line = in.readLine();
+        if (line == null) {
+          break;
+        }
+        recordNumber++;
+        if (line.isBlank()) {
+          continue;
+        }
+        try {
+          JSONObject json = JSONObject.fromObject(line);
+          values = new HashMap<>();
+          for (String column : COLUMNS) {
+            values.put(column, Util.fixEmpty(json.optString(column, null)));
+          }
+        } catch (JSONException e) {
+          data.errors.add("Record " + recordNumber + ": " + e.getMessage());
+          continue;
+        }
+      }
+      if (!keepUserid) {
+        values.remove("userid");
+      }
+      try {
+        data.add(values);
+      } catch (RuntimeException e) {
+        data.errors.add("Record " + recordNumber + ": " + e.getMessage());
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Reads one CSV record. Quoted fields may contain line breaks.
+   *
+   * @param in The reader
+   * @return The fields of the record or <code>null</code> at the end of the input
+   * @throws IOException when reading fails
+   */
+  @CheckForNull
+  static List<String> readCsvRecord(@NonNull BufferedReader in) throws IOException {
+    int c = in.read();
+    if (c == -1) {
+      return null;
+    }
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    while (c != -1 && (quoted || c != '\n')) {
+      int next = in.read();
+      if (quoted && c == '"') {
+        if (next == '"') {
+          field.append('"');
+          next = in.read();
+        } else {
+          quoted = false;
+        }
+      } else if (quoted) {
+        field.append((char) c);
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else if (c != '\r') {
+        field.append((char) c);
+      }
+      c = next;
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+
+  /**
+   * The result of reading an import.
+   */
+  public static final class ImportData {
+    private final Map<String, MaintenanceDefinitions> agents = new LinkedHashMap<>();
+    private final List<String> errors = new ArrayList<>();
+
+    private void add(Map<String, String> values) {
+      String computerName = values.get("computerName");
+      if (computerName == null) {
+        throw new IllegalArgumentException("computerName is missing");
+      }
+      String type = Util.fixNull(values.get("type"), TYPE_SCHEDULED);
+      boolean takeOnline = Boolean.parseBoolean(values.get("takeOnline"));
+      boolean keepUpWhenActive = Boolean.parseBoolean(values.get("keepUpWhenActive"));
+      String maxWaitMinutes = Util.fixNull(values.get("maxWaitMinutes"));
+      String remainingExecutors = Util.fixEmptyAndTrim(values.get("remainingExecutors"));
+      if (TYPE_SCHEDULED.equals(type)) {
+        MaintenanceWindow mw = new MaintenanceWindow(require(values, "startTime"), require(values, "endTime"),
+            Util.fixNull(values.get("reason")), takeOnline, keepUpWhenActive, maxWaitMinutes, values.get("userid"),
+            values.get("id"));
+        if (remainingExecutors != null) {
+          mw.setRemainingExecutors(Integer.parseInt(remainingExecutors));
+        }
+        getDefinitions(computerName).getScheduled().add(mw);
+      } else if (TYPE_RECURRING.equals(type)) {
+        String id = values.get("id");
+        RecurringMaintenanceWindow rmw = new RecurringMaintenanceWindow(require(values, "startTimeSpec"),
+            Util.fixNull(values.get("reason")), takeOnline, keepUpWhenActive, maxWaitMinutes, require(values, "duration"),
+            values.get("userid"), id != null ? MaintenanceHelper.getUuid(id) : null, 0);
+        if (remainingExecutors != null) {
+          rmw.setRemainingExecutors(Integer.parseInt(remainingExecutors));
+        }
+        getDefinitions(computerName).getRecurring().add(rmw);
+      } else {
+        throw new IllegalArgumentException("Unknown type " + type);
+      }
+    }
+
+    private static String require(Map<String, String> values, String column) {
+      String value = values.get(column);
+      if (value == null) {
+        throw new IllegalArgumentException(column + " is missing");
+      }
+      return value;
+    }
+
+    private MaintenanceDefinitions getDefinitions(String computerName) {
+      return agents.computeIfAbsent(computerName, n -> new MaintenanceDefinitions(new TreeSet<>(), new HashSet<>()));
+    }
+
+    /**
+     * The imported maintenance definitions by agent name.
+     *
+     * @return Map of agent name to definitions
+     */
+    @NonNull
+    public Map<String, MaintenanceDefinitions> getAgents() {
+      return agents;
+    }
+
+    @NonNull
+    public List<String> getErrors() {
+      return errors;
+    }
+  }
+}
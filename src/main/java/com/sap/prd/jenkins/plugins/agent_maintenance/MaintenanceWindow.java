@@ -1,5 +1,11 @@
 package com.sap.prd.jenkins.plugins.agent_maintenance;
 
+import com.thoughtworks.xstream.converters.ConversionException;
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
 import hudson.Util;
@@ -11,30 +17,34 @@ import hudson.util.FormValidation;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.Objects;
 import java.util.UUID;
 import jenkins.model.Jenkins;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
 import org.springframework.security.core.Authentication;
 
 /**
  * Describes a maintenance window.
  */
+@ExportedBean(defaultVisibility = 2)
 public class MaintenanceWindow extends AbstractDescribableImpl<MaintenanceWindow> implements Comparable<MaintenanceWindow> {
 
   public static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
   public static final DateTimeFormatter DATE_INPUT_FORMATTER = DateTimeFormatter.ofPattern("yyyy-M-d H:m");
   private transient String startTime;
   private transient String endTime;
-  private final String reason;
-  private final boolean takeOnline;
-  private final boolean keepUpWhenActive;
-  private final int maxWaitMinutes;
-  private final String userid;
+  private MaintenanceTemplate template;
   private String id;
   private LocalDateTime startDateTime;
   private LocalDateTime endDateTime;
   private transient boolean aborted;
+  private transient boolean started;
+  private transient boolean draining;
+  private transient LocalDateTime deferredStart;
 
   /**
    * Create a new maintenance window.
@@ -92,10 +102,6 @@ public class MaintenanceWindow extends AbstractDescribableImpl<MaintenanceWindow
       String maxWaitMinutes, String userid, String id) {
     this.startDateTime = startTime;
     this.endDateTime = endTime;
-    this.reason = reason;
-    this.takeOnline = takeOnline;
-    this.maxWaitMinutes = MaintenanceHelper.parseDurationString(maxWaitMinutes);
-    this.keepUpWhenActive = keepUpWhenActive;
     if (Util.fixEmptyAndTrim(userid) == null) {
       Authentication auth = Jenkins.getAuthentication2();
       userid = "System";
@@ -103,7 +109,8 @@ public class MaintenanceWindow extends AbstractDescribableImpl<MaintenanceWindow
         userid = auth.getName();
       }
     }
-    this.userid = userid;
+    this.template = MaintenanceTemplate.of(reason, takeOnline, keepUpWhenActive, MaintenanceHelper.parseDurationString(maxWaitMinutes),
+        userid);
 
     if (Util.fixEmptyAndTrim(id) == null) {
       id = UUID.randomUUID().toString();
@@ -113,17 +120,37 @@ public class MaintenanceWindow extends AbstractDescribableImpl<MaintenanceWindow
     this.id = id;
   }
 
+  /*
+   * Create a maintenance window from already validated values, e.g. when reading persisted data.
+   */
+  MaintenanceWindow(LocalDateTime startTime, LocalDateTime endTime, String reason, boolean takeOnline, boolean keepUpWhenActive,
+                    int maxWaitMinutes, String userid, String id) {
+    this(startTime, endTime, MaintenanceTemplate.of(reason, takeOnline, keepUpWhenActive, maxWaitMinutes, userid), id);
+  }
 
+  /*
+   * Create a maintenance window that shares the settings with other windows, e.g. an occurrence of a recurring window.
+   */
+  MaintenanceWindow(LocalDateTime startTime, LocalDateTime endTime, MaintenanceTemplate template, String id) {
+    this.startDateTime = startTime;
+    this.endDateTime = endTime;
+    this.template = template;
+    this.id = id != null ? id : UUID.randomUUID().toString();
+  }
+
+  @Exported
   public String getId() {
     return id;
   }
 
+  @Exported
   public String getUserid() {
-    return userid;
+    return template.getUserid();
   }
 
+  @Exported
   public boolean isKeepUpWhenActive() {
-    return keepUpWhenActive;
+    return template.isKeepUpWhenActive();
   }
 
   public boolean buildsHaveBeenAborted() {
@@ -134,12 +161,75 @@ public class MaintenanceWindow extends AbstractDescribableImpl<MaintenanceWindow
     this.aborted = aborted;
   }
 
+  /**
+   * Marks that listeners were notified about the start of this maintenance window.
+   *
+   * @return true when this is the first call
+   */
+  boolean markStarted() {
+    boolean first = !started;
+    started = true;
+    return first;
+  }
+
+  /**
+   * Marks that listeners were notified that the agent is draining.
+   *
+   * @return true when this is the first call
+   */
+  boolean markDraining() {
+    boolean first = !draining;
+    draining = true;
+    return first;
+  }
+
+  /**
+   * Sets the time the agent entered maintenance when it had to wait for other agents because of a
+   * {@link MaintenanceConcurrencyLimit}. The maximum waiting time for running builds starts at this time.
+   *
+   * @param deferredStart The time the agent entered maintenance
+   */
+  void setDeferredStart(LocalDateTime deferredStart) {
+    this.deferredStart = deferredStart;
+  }
+
+  LocalDateTime getDeferredStart() {
+    return deferredStart;
+  }
+
+  @Exported
   public int getMaxWaitMinutes() {
-    return maxWaitMinutes;
+    return template.getMaxWaitMinutes();
   }
 
+  @Exported
   public boolean isTakeOnline() {
-    return takeOnline;
+    return template.isTakeOnline();
+  }
+
+  /**
+   * The number of executors that stay available during the maintenance.
+   * With 0 the agent is taken offline, otherwise it keeps running with the reduced number of executors.
+   *
+   * @return number of remaining executors
+   */
+  @Exported
+  public int getRemainingExecutors() {
+    return template.getRemainingExecutors();
+  }
+
+  @DataBoundSetter
+  public void setRemainingExecutors(int remainingExecutors) {
+    template = template.withRemainingExecutors(remainingExecutors);
+  }
+
+  /**
+   * Whether the agent keeps running with reduced capacity instead of being taken offline.
+   *
+   * @return true when executors remain available
+   */
+  public boolean isDegraded() {
+    return template.getRemainingExecutors() > 0;
   }
 
   protected Object readResolve() {
@@ -154,16 +244,31 @@ public class MaintenanceWindow extends AbstractDescribableImpl<MaintenanceWindow
     return this;
   }
 
+  @Exported
   public String getStartTime() {
     return startDateTime.format(DATE_FORMATTER);
   }
 
+  @Exported
   public String getEndTime() {
     return endDateTime.format(DATE_FORMATTER);
   }
 
+  @Exported
   public String getReason() {
-    return reason;
+    return template.getReason();
+  }
+
+  MaintenanceTemplate getTemplate() {
+    return template;
+  }
+
+  LocalDateTime getStartDateTime() {
+    return startDateTime;
+  }
+
+  LocalDateTime getEndDateTime() {
+    return endDateTime;
   }
 
   /**
@@ -172,11 +277,12 @@ public class MaintenanceWindow extends AbstractDescribableImpl<MaintenanceWindow
    * @return true when waiting is finished
    */
   public boolean isMaxWaitTimeFinished() {
+    int maxWaitMinutes = template.getMaxWaitMinutes();
     if (maxWaitMinutes < 0) {
       return false;
     }
     LocalDateTime now = LocalDateTime.now();
-    LocalDateTime maxWaitTime = startDateTime.plusMinutes(maxWaitMinutes);
+    LocalDateTime maxWaitTime = (deferredStart != null ? deferredStart : startDateTime).plusMinutes(maxWaitMinutes);
     return now.isAfter(maxWaitTime);
   }
 
@@ -185,13 +291,20 @@ public class MaintenanceWindow extends AbstractDescribableImpl<MaintenanceWindow
    *
    * @return true if the maintenance is active, false otherwise.
    */
+  @Exported
   public boolean isMaintenanceScheduled() {
-    LocalDateTime now = LocalDateTime.now();
+    return isMaintenanceScheduled(LocalDateTime.now());
+  }
+
+  boolean isMaintenanceScheduled(LocalDateTime now) {
     return now.isAfter(startDateTime) && now.isBefore(endDateTime);
   }
 
   public boolean isMaintenanceOver() {
-    LocalDateTime now = LocalDateTime.now();
+    return isMaintenanceOver(LocalDateTime.now());
+  }
+
+  boolean isMaintenanceOver(LocalDateTime now) {
     return !now.isBefore(endDateTime);
   }
 
@@ -246,16 +359,116 @@ public class MaintenanceWindow extends AbstractDescribableImpl<MaintenanceWindow
     return startTimeCalendar.compareTo(endTimeCalendar);
   }
 
+  /**
+   * Converter that writes a maintenance window with attributes and reads it without reflection.
+   * Also reads the element based layout written by older versions.
+   */
+  public static final class ConverterImpl implements Converter {
+    @Override
+    public boolean canConvert(Class type) {
+      return type == MaintenanceWindow.class;
+    }
+
+    @Override
+    public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+      write(writer, (MaintenanceWindow) source);
+    }
+
+    @Override
+    public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+      return read(reader);
+    }
+
+    /**
+     * Writes the attributes and the reason of a maintenance window to the current element.
+     *
+     * @param writer The writer
+     * @param mw The maintenance window
+     */
+    static void write(HierarchicalStreamWriter writer, MaintenanceWindow mw) {
+      writer.addAttribute("id", mw.id);
+      writer.addAttribute("start", mw.startDateTime.toString());
+      writer.addAttribute("end", mw.endDateTime.toString());
+      writer.addAttribute("maxWait", Integer.toString(mw.getMaxWaitMinutes()));
+      writer.addAttribute("takeOnline", Boolean.toString(mw.isTakeOnline()));
+      writer.addAttribute("keepUp", Boolean.toString(mw.isKeepUpWhenActive()));
+      if (mw.getUserid() != null) {
+        writer.addAttribute("user", mw.getUserid());
+      }
+      if (mw.isDegraded()) {
+        writer.addAttribute("executors", Integer.toString(mw.getRemainingExecutors()));
+      }
+      writer.setValue(Util.fixNull(mw.getReason()));
+    }
+
+    /**
+     * Reads a maintenance window from the current element.
+     *
+     * @param reader The reader
+     * @return The maintenance window
+     */
+    static MaintenanceWindow read(HierarchicalStreamReader reader) {
+      String start = reader.getAttribute("start");
+      if (start != null) {
+        // pull parsers move past the attributes when the value is read, so all attributes have to be read first
+        String end = reader.getAttribute("end");
+        String id = reader.getAttribute("id");
+        boolean takeOnline = Boolean.parseBoolean(reader.getAttribute("takeOnline"));
+        boolean keepUp = Boolean.parseBoolean(reader.getAttribute("keepUp"));
+        String maxWait = reader.getAttribute("maxWait");
+        String user = reader.getAttribute("user");
+        String executors = reader.getAttribute("executors");
+        String reason = reader.getValue();
+        MaintenanceTemplate template = MaintenanceTemplate.of(reason, takeOnline, keepUp, maxWait != null ? Integer.parseInt(maxWait) : -1,
+            user, executors != null ? Integer.parseInt(executors) : 0);
+        return new MaintenanceWindow(LocalDateTime.parse(start), LocalDateTime.parse(end), template, id);
+      }
+      LocalDateTime startDateTime = null;
+      LocalDateTime endDateTime = null;
+      String reason = null;
+      boolean takeOnline = false;
+      boolean keepUpWhenActive = false;
+      int maxWaitMinutes = -1;
+      String userid = null;
+      String id = null;
+      while (reader.hasMoreChildren()) {
+        reader.moveDown();
+        String value = reader.getValue();
+        switch (reader.getNodeName()) {
+          case "startDateTime" -> startDateTime = LocalDateTime.parse(value);
+          case "endDateTime" -> endDateTime = LocalDateTime.parse(value);
+          case "startTime" -> startDateTime = LocalDateTime.parse(value, DATE_INPUT_FORMATTER);
+          case "endTime" -> endDateTime = LocalDateTime.parse(value, DATE_INPUT_FORMATTER);
+          case "reason" -> reason = value;
+          case "takeOnline" -> takeOnline = Boolean.parseBoolean(value);
+          case "keepUpWhenActive" -> keepUpWhenActive = Boolean.parseBoolean(value);
+          case "maxWaitMinutes" -> maxWaitMinutes = Integer.parseInt(value);
+          case "userid" -> userid = value;
+          case "id" -> id = value;
+          default -> {
+            // ignore unknown elements
+          }
+        }
+        reader.moveUp();
+      }
+      if (startDateTime == null || endDateTime == null) {
+        throw new ConversionException("Maintenance window without start or end time");
+      }
+      return new MaintenanceWindow(startDateTime, endDateTime, reason, takeOnline, keepUpWhenActive, maxWaitMinutes, userid, id);
+    }
+  }
+
   @Override
   public int hashCode() {
     final int prime = 31;
     int result = 1;
     result = prime * result + ((endDateTime == null) ? 0 : endDateTime.hashCode());
-    result = prime * result + (keepUpWhenActive ? 1231 : 1237);
-    result = prime * result + maxWaitMinutes;
-    result = prime * result + ((reason == null) ? 0 : reason.hashCode());
+    result = prime * result + (template.isKeepUpWhenActive() ? 1231 : 1237);
+    result = prime * result + template.getMaxWaitMinutes();
+    result = prime * result + ((template.getReason() == null) ? 0 : template.getReason().hashCode());
     result = prime * result + ((startDateTime == null) ? 0 : startDateTime.hashCode());
-    result = prime * result + (takeOnline ? 1231 : 1237);
+    result = prime * result + (template.isTakeOnline() ? 1231 : 1237);
+    result = prime * result + template.getRemainingExecutors();
     return result;
   }
 
@@ -274,21 +487,19 @@ public class MaintenanceWindow extends AbstractDescribableImpl<MaintenanceWindow
         return false;
     } else if (!endDateTime.equals(other.endDateTime))
       return false;
-    if (keepUpWhenActive != other.keepUpWhenActive)
-      return false;
-    if (maxWaitMinutes != other.maxWaitMinutes)
-      return false;
-    if (reason == null) {
-      if (other.reason != null)
-        return false;
-    } else if (!reason.equals(other.reason))
-      return false;
     if (startDateTime == null) {
       if (other.startDateTime != null)
         return false;
     } else if (!startDateTime.equals(other.startDateTime))
       return false;
-    return takeOnline == other.takeOnline;
+    if (template == other.template)
+      return true;
+    // the userid is not relevant for equality
+    return template.isKeepUpWhenActive() == other.template.isKeepUpWhenActive()
+        && template.getMaxWaitMinutes() == other.template.getMaxWaitMinutes()
+        && Objects.equals(template.getReason(), other.template.getReason())
+        && template.isTakeOnline() == other.template.isTakeOnline()
+        && template.getRemainingExecutors() == other.template.getRemainingExecutors();
   }
 
   @Override
@@ -298,22 +509,25 @@ public class MaintenanceWindow extends AbstractDescribableImpl<MaintenanceWindow
       return compare;
     }
     compare = endDateTime.compareTo(other.endDateTime);
+    if (compare != 0 || template == other.template) {
+      return compare;
+    }
+    compare = getReason().compareTo(other.getReason());
     if (compare != 0) {
       return compare;
     }
-    compare = reason.compareTo(other.reason);
+    compare = Integer.compare(getMaxWaitMinutes(), other.getMaxWaitMinutes());
     if (compare != 0) {
       return compare;
     }
-    compare = Integer.compare(maxWaitMinutes, other.maxWaitMinutes);
+    compare = Boolean.compare(isKeepUpWhenActive(), other.isKeepUpWhenActive());
     if (compare != 0) {
       return compare;
     }
-    compare = Boolean.compare(keepUpWhenActive, other.keepUpWhenActive);
+    compare = Boolean.compare(isTakeOnline(), other.isTakeOnline());
     if (compare != 0) {
       return compare;
     }
-    compare = Boolean.compare(takeOnline, other.takeOnline);
-    return compare;
+    return Integer.compare(getRemainingExecutors(), other.getRemainingExecutors());
   }
 }
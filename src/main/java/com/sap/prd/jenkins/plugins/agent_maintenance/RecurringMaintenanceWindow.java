@@ -6,6 +6,12 @@ import com.cronutils.model.definition.CronDefinition;
 import com.cronutils.model.definition.CronDefinitionBuilder;
 import com.cronutils.model.time.ExecutionTime;
 import com.cronutils.parser.CronParser;
+import com.thoughtworks.xstream.converters.ConversionException;
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
@@ -20,6 +26,7 @@ import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
@@ -29,13 +36,17 @@ import jenkins.model.Jenkins;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
 import org.kohsuke.stapler.verb.POST;
 import org.springframework.security.core.Authentication;
 
 /**
  * Defines a recurring maintenance window based on a cron like schedule.
  */
+@ExportedBean(defaultVisibility = 2)
 public class RecurringMaintenanceWindow extends AbstractDescribableImpl<RecurringMaintenanceWindow> {
 
   private static final CronDefinition cronDefinition = CronDefinitionBuilder.defineCron()
@@ -71,7 +82,10 @@ public class RecurringMaintenanceWindow extends AbstractDescribableImpl<Recurrin
   private final String startTimeSpec;
   private final int duration;
   private long nextCheck = 0;
+  private int remainingExecutors;
   private transient Cron cron;
+  private transient String cronSeed;
+  private transient MaintenanceTemplate template;
 
   /**
    * Creates a new recurring maintenance window.
@@ -91,7 +105,7 @@ public class RecurringMaintenanceWindow extends AbstractDescribableImpl<Recurrin
   public RecurringMaintenanceWindow(String startTimeSpec, String reason, boolean takeOnline, boolean keepUpWhenActive,
                                     String maxWaitMinutes, String duration, String userid, String id, long nextCheck) {
     this.startTimeSpec = startTimeSpec;
-    this.cron = parser.parse(startTimeSpec);
+    this.cron = parser.parse(CronHash.resolve(startTimeSpec, null));
     this.reason = reason;
     this.takeOnline = takeOnline;
     this.maxWaitMinutes = maxWaitMinutes;
@@ -112,44 +126,175 @@ public class RecurringMaintenanceWindow extends AbstractDescribableImpl<Recurrin
     this.id = id;
   }
 
+  /**
+   * Converter that writes a recurring maintenance window with attributes and reads it without reflection.
+   * Also reads the element based layout written by older versions.
+   */
+  public static final class ConverterImpl implements Converter {
+
+    @Override
+    public boolean canConvert(Class type) {
+      return type == RecurringMaintenanceWindow.class;
+    }
+
+    @Override
+    public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+      write(writer, (RecurringMaintenanceWindow) source);
+    }
+
+    @Override
+    public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+      return read(reader);
+    }
+
+    /**
+     * Writes the attributes and the reason of a recurring maintenance window to the current element.
+     *
+     * @param writer The writer
+     * @param rmw The recurring maintenance window
+     */
+    static void write(HierarchicalStreamWriter writer, RecurringMaintenanceWindow rmw) {
+      writer.addAttribute("id", rmw.id);
+      writer.addAttribute("spec", rmw.startTimeSpec);
+      writer.addAttribute("duration", Integer.toString(rmw.duration));
+      if (rmw.maxWaitMinutes != null) {
+        writer.addAttribute("maxWait", rmw.maxWaitMinutes);
+      }
+      writer.addAttribute("takeOnline", Boolean.toString(rmw.takeOnline));
+      writer.addAttribute("keepUp", Boolean.toString(rmw.keepUpWhenActive));
+      if (rmw.userid != null) {
+        writer.addAttribute("user", rmw.userid);
+      }
+      writer.addAttribute("nextCheck", Long.toString(rmw.getNextCheck()));
+      if (rmw.remainingExecutors > 0) {
+        writer.addAttribute("executors", Integer.toString(rmw.remainingExecutors));
+      }
+      writer.setValue(Util.fixNull(rmw.reason));
+    }
+
+    /**
+     * Reads a recurring maintenance window from the current element.
+     *
+     * @param reader The reader
+     * @return The recurring maintenance window
+     */
+    static RecurringMaintenanceWindow read(HierarchicalStreamReader reader) {
+      String spec = reader.getAttribute("spec");
+      if (spec != null) {
+        // pull parsers move past the attributes when the value is read, so all attributes have to be read first
+        boolean takeOnline = Boolean.parseBoolean(reader.getAttribute("takeOnline"));
+        boolean keepUp = Boolean.parseBoolean(reader.getAttribute("keepUp"));
+        String maxWait = reader.getAttribute("maxWait");
+        String duration = reader.getAttribute("duration");
+        String user = reader.getAttribute("user");
+        String id = reader.getAttribute("id");
+        String nextCheck = reader.getAttribute("nextCheck");
+        String executors = reader.getAttribute("executors");
+        String reason = reader.getValue();
+        RecurringMaintenanceWindow rmw = new RecurringMaintenanceWindow(spec, reason, takeOnline, keepUp, maxWait, duration, user, id,
+            nextCheck != null ? Long.parseLong(nextCheck) : 0);
+        if (executors != null) {
+          rmw.setRemainingExecutors(Integer.parseInt(executors));
+        }
+        return rmw;
+      }
+      String reason = null;
+      boolean takeOnline = false;
+      boolean keepUpWhenActive = false;
+      String maxWaitMinutes = null;
+      String userid = null;
+      String id = null;
+      String duration = "0";
+      long nextCheck = 0;
+      while (reader.hasMoreChildren()) {
+        reader.moveDown();
+        String value = reader.getValue();
+        switch (reader.getNodeName()) {
+          case "startTimeSpec" -> spec = value;
+          case "reason" -> reason = value;
+          case "takeOnline" -> takeOnline = Boolean.parseBoolean(value);
+          case "keepUpWhenActive" -> keepUpWhenActive = Boolean.parseBoolean(value);
+          case "maxWaitMinutes" -> maxWaitMinutes = value;
+          case "duration" -> duration = value;
+          case "userid" -> userid = value;
+          case "id" -> id = value;
+          case "nextCheck" -> nextCheck = Long.parseLong(value);
+          default -> {
+            // ignore unknown elements
+          }
+        }
+        reader.moveUp();
+      }
+      if (spec == null) {
+        throw new ConversionException("Recurring maintenance window without start time specification");
+      }
+      return new RecurringMaintenanceWindow(spec, reason, takeOnline, keepUpWhenActive, maxWaitMinutes, duration, userid, id, nextCheck);
+    }
+  }
+
   protected synchronized Object readResolve() throws ObjectStreamException {
-    cron = parser.parse(startTimeSpec);
+    cron = parser.parse(CronHash.resolve(startTimeSpec, null));
     return this;
   }
 
+  @Exported
   public String getStartTimeSpec() {
     return startTimeSpec;
   }
 
+  @Exported
   public int getDuration() {
     return duration;
   }
 
+  @Exported
   public String getReason() {
     return reason;
   }
 
+  @Exported
   public boolean isTakeOnline() {
     return takeOnline;
   }
 
+  @Exported
   public boolean isKeepUpWhenActive() {
     return keepUpWhenActive;
   }
 
+  @Exported
   public String getMaxWaitMinutes() {
     return maxWaitMinutes;
   }
 
+  @Exported
   public String getUserid() {
     return userid;
   }
 
+  /**
+   * The number of executors that stay available during the maintenance.
+   * With 0 the agent is taken offline.
+   *
+   * @return number of remaining executors
+   */
+  @Exported
+  public int getRemainingExecutors() {
+    return remainingExecutors;
+  }
+
+  @DataBoundSetter
+  public synchronized void setRemainingExecutors(int remainingExecutors) {
+    this.remainingExecutors = Math.max(0, remainingExecutors);
+    this.template = null;
+  }
+
   @Restricted(NoExternalUse.class)
   public long getNextCheck() {
     return nextCheck;
   }
 
+  @Exported
   @Restricted(NoExternalUse.class)
   public String getId() {
     return id;
@@ -157,14 +302,29 @@ public class RecurringMaintenanceWindow extends AbstractDescribableImpl<Recurrin
 
   /**
    * Returns a list of maintenance windows that should be put into the scheduled maintenance windows
-   * of an agent.
+   * of an agent. <code>H</code> tokens in the start time specification resolve to the first value of their range.
    * Updates the nextCheck interval for the recurring window.
    *
    * @return The list of maintenance windows.
    */
   @NonNull
   @Restricted(NoExternalUse.class)
-  public synchronized Set<MaintenanceWindow> getFutureMaintenanceWindows() {
+  public Set<MaintenanceWindow> getFutureMaintenanceWindows() {
+    return getFutureMaintenanceWindows(null);
+  }
+
+  /**
+   * Returns a list of maintenance windows that should be put into the scheduled maintenance windows
+   * of an agent. <code>H</code> tokens in the start time specification are resolved with a hash of the agent name.
+   * Updates the nextCheck interval for the recurring window.
+   *
+   * @param computerName Name of the agent
+   * @return The list of maintenance windows.
+   */
+  @NonNull
+  @Restricted(NoExternalUse.class)
+  public synchronized Set<MaintenanceWindow> getFutureMaintenanceWindows(String computerName) {
+    Cron hashedCron = getCron(computerName);
     LOGGER.log(Level.FINER, "Checking for future maintenance Windows.");
     ZonedDateTime now = ZonedDateTime.now().truncatedTo(ChronoUnit.MINUTES);
     ZoneId zoneId = now.getZone();
@@ -191,7 +351,7 @@ public class RecurringMaintenanceWindow extends AbstractDescribableImpl<Recurrin
       LOGGER.log(Level.FINE, "Check for maintenance window starts between: {0} and {1}", new Object[] { time.toString(),
           endCheckTime.toString()});
       while (endCheckTime.isAfter(time)) {
-        if (ExecutionTime.forCron(cron).isMatch(time)) {
+        if (ExecutionTime.forCron(hashedCron).isMatch(time)) {
           LOGGER.log(Level.FINER, "Time matched: {0}", time.toString());
           futureMaintenanceWindows.add(getMaintenanceWindow(time));
         }
@@ -203,11 +363,22 @@ public class RecurringMaintenanceWindow extends AbstractDescribableImpl<Recurrin
     return futureMaintenanceWindows;
   }
 
+  private Cron getCron(String computerName) {
+    if (!Objects.equals(computerName, cronSeed) && CronHash.isHashed(startTimeSpec)) {
+      cron = parser.parse(CronHash.resolve(startTimeSpec, computerName));
+      cronSeed = computerName;
+    }
+    return cron;
+  }
+
   private MaintenanceWindow getMaintenanceWindow(ZonedDateTime time) {
     LocalDateTime startTime = LocalDateTime.ofInstant(time.toInstant(), time.getZone());
     LocalDateTime endTime = startTime.plusMinutes(duration);
-    return new MaintenanceWindow(startTime, endTime, reason, takeOnline, keepUpWhenActive,
-        maxWaitMinutes, userid, "");
+    if (template == null) {
+      template = MaintenanceTemplate.of(reason, takeOnline, keepUpWhenActive, MaintenanceHelper.parseDurationString(maxWaitMinutes),
+          userid, remainingExecutors);
+    }
+    return new MaintenanceWindow(startTime, endTime, template, null);
   }
 
   @Override
@@ -220,6 +391,7 @@ public class RecurringMaintenanceWindow extends AbstractDescribableImpl<Recurrin
     result = prime * result + ((reason == null) ? 0 : reason.hashCode());
     result = prime * result + ((startTimeSpec == null) ? 0 : startTimeSpec.hashCode());
     result = prime * result + (takeOnline ? 1231 : 1237);
+    result = prime * result + remainingExecutors;
     return result;
   }
 
@@ -250,7 +422,7 @@ public class RecurringMaintenanceWindow extends AbstractDescribableImpl<Recurrin
       return false;
     if (takeOnline != other.takeOnline)
       return false;
-    return true;
+    return remainingExecutors == other.remainingExecutors;
   }
 
   /** Descriptor for UI only. */
@@ -264,17 +436,21 @@ public class RecurringMaintenanceWindow extends AbstractDescribableImpl<Recurrin
     }
 
     /**
-     * Performs syntax check.
+     * Performs syntax check. When the specification contains <code>H</code> tokens, the times are shown for the agent.
      */
     @POST
-    public FormValidation doCheckStartTimeSpec(@QueryParameter String value) {
+    public FormValidation doCheckStartTimeSpec(@QueryParameter String value, @QueryParameter String agentName) {
       try {
-        Cron cron = parser.parse(value);
+        String resolved = CronHash.resolve(value, Util.fixEmpty(agentName));
+        Cron cron = parser.parse(resolved);
         ExecutionTime et = ExecutionTime.forCron(cron);
         ZonedDateTime last = et.lastExecution(ZonedDateTime.now()).orElse(null);
         ZonedDateTime next = et.nextExecution(ZonedDateTime.now()).orElse(null);
         if (next != null && last != null) {
           String msg = "Would have last run at " + last + "; would next run at " + next;
+          if (!resolved.equals(value)) {
+            msg = "Resolves to \"" + resolved + "\" for this agent. " + msg;
+          }
           return FormValidation.warning(msg);
         }
         return FormValidation.ok();
@@ -0,0 +1,88 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.XmlFile;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.SortedSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Stores the maintenance definitions of each agent in a file in the directory of the agent.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class XmlMaintenanceStore extends MaintenanceStore {
+  private static final Logger LOGGER = Logger.getLogger(XmlMaintenanceStore.class.getName());
+
+  static final String MAINTENANCE_FILE_NAME = "maintenance-windows.xml";
+
+  @Override
+  @CheckForNull
+  @SuppressWarnings("unchecked")
+  public MaintenanceDefinitions load(@NonNull String computerName) throws IOException {
+    XmlFile xmlMaintenanceFile = getMaintenanceWindowsFile(computerName);
+    if (!xmlMaintenanceFile.exists()) {
+      return null;
+    }
+    Object o = xmlMaintenanceFile.read();
+    if (o instanceof MaintenanceDefinitions md) {
+      return md;
+    }
+    if (o instanceof SortedSet) {
+      LOGGER.log(Level.FINE, "Converting maintenance definition file for {0} from old format", computerName);
+      MaintenanceDefinitions md = new MaintenanceDefinitions((SortedSet<MaintenanceWindow>) o, new HashSet<>());
+      xmlMaintenanceFile.write(md);
+      return md;
+    }
+    throw new IOException("Unexpected content in " + xmlMaintenanceFile);
+  }
+
+  @Override
+  public void save(@NonNull String computerName, @NonNull MaintenanceDefinitions md) throws IOException {
+    getMaintenanceWindowsFile(computerName).write(md);
+  }
+
+  @Override
+  public void delete(@NonNull String computerName) throws IOException {
+    XmlFile xmlMaintenanceFile = getMaintenanceWindowsFile(computerName);
+    if (xmlMaintenanceFile.exists()) {
+      xmlMaintenanceFile.delete();
+    }
+  }
+
+  @Override
+  public long getLastModified(@NonNull String computerName) {
+    // File#lastModified returns 0 when the file doesn't exist
+    return getMaintenanceWindowsFile(computerName).getFile().lastModified();
+  }
+
+  @Override
+  public void rename(@NonNull String oldName, @NonNull String newName, @NonNull MaintenanceDefinitions md) throws IOException {
+    // the old directory is removed together with the old node
+    save(newName, md);
+  }
+
+  private XmlFile getMaintenanceWindowsFile(String computerName) {
+    return new XmlFile(new File(new File(getNodesDirectory(), computerName), MAINTENANCE_FILE_NAME));
+  }
+
+  /**
+   * Returns the directory that contains the directories of the agents.
+   *
+   * @return The nodes directory, it might not exist yet
+   */
+  @NonNull
+  static File getNodesDirectory() {
+    // jenkins.model.Nodes#getNodesDirectory() is private, so we have to duplicate
+    // it here.
+    return new File(Jenkins.get().getRootDir(), "nodes");
+  }
+}
@@ -74,6 +74,36 @@ class AgentMaintenanceRetentionStrategyTest extends BaseIntegrationTest {
     maintenanceHelper.deleteMaintenanceWindow(agent.getNodeName(), id);
   }
 
+  @Test
+  void reducedCapacityKeepsAgentOnline() throws Exception {
+    Slave agent = getAgent("reducedCapacity");
+    LocalDateTime start = LocalDateTime.now().minusMinutes(1);
+    MaintenanceWindow mw = new MaintenanceWindow(start.format(DATE_FORMATTER), start.plusMinutes(30).format(DATE_FORMATTER),
+        "test", true, false, "0", "test", null);
+    mw.setRemainingExecutors(1);
+    maintenanceHelper.addMaintenanceWindow(agent.getNodeName(), mw);
+    assertThat(mw.isDegraded(), is(true));
+    assertThat(agent.toComputer().isAcceptingTasks(), is(true));
+    triggerCheckCycle(agent);
+    assertThat(agent.getChannel(), is(notNullValue()));
+    assertThat(mw.buildsHaveBeenAborted(), is(false));
+
+    // of overlapping windows with reduced capacity the one with fewer executors wins, in the index as well
+    MaintenanceWindow larger = new MaintenanceWindow(start.minusMinutes(1).format(DATE_FORMATTER),
+        start.plusMinutes(30).format(DATE_FORMATTER), "test", true, false, "0", "test", null);
+    larger.setRemainingExecutors(4);
+    maintenanceHelper.addMaintenanceWindow(agent.getNodeName(), larger);
+    assertThat(maintenanceHelper.getMaintenance(agent.getNodeName()), is(mw));
+    assertThat(maintenanceHelper.getRemainingExecutors(agent.getNodeName()), is(1));
+
+    // an overlapping window that takes the agent offline wins
+    MaintenanceWindow offline = new MaintenanceWindow(start.format(DATE_FORMATTER), start.plusMinutes(20).format(DATE_FORMATTER),
+        "test", true, false, "0", "test", null);
+    maintenanceHelper.addMaintenanceWindow(agent.getNodeName(), offline);
+    assertThat(maintenanceHelper.getMaintenance(agent.getNodeName()), is(offline));
+    assertThat(agent.toComputer().isAcceptingTasks(), is(false));
+  }
+
   @Test
   @Timeout(600)
   void agentComesBackOnline() throws Exception {
@@ -0,0 +1,70 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.matchesPattern;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test resolving H in start time specifications.
+ */
+class CronHashTest {
+
+  @Test
+  void specWithoutHashIsUnchanged() {
+    assertThat(CronHash.isHashed("0 3 * * THU"), is(false));
+    assertThat(CronHash.resolve("0 3 * * THU", "agent"), is("0 3 * * THU"));
+  }
+
+  @Test
+  void hashIsStablePerAgent() {
+    String spec = "H H(0-5) * * 0";
+    assertThat(CronHash.isHashed(spec), is(true));
+    assertThat(CronHash.resolve(spec, "agent1"), is(CronHash.resolve(spec, "agent1")));
+    assertThat(CronHash.resolve(spec, null), is("0 0 * * 0"));
+
+    Set<String> resolved = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      String r = CronHash.resolve(spec, "agent" + i);
+      String[] fields = r.split(" ");
+      assertThat(Integer.parseInt(fields[0]), lessThanOrEqualTo(59));
+      assertThat(Integer.parseInt(fields[1]), lessThanOrEqualTo(5));
+      resolved.add(r);
+    }
+    assertThat(resolved.size(), greaterThan(50));
+  }
+
+  @Test
+  void hashWithStep() {
+    String resolved = CronHash.resolve("H/15 H(2-4)/2 * * *", "agent");
+    assertThat(resolved, matchesPattern("\\d+-59/15 \\d-4/2 \\* \\* \\*"));
+    int minute = Integer.parseInt(resolved.substring(0, resolved.indexOf('-')));
+    assertThat(minute, lessThanOrEqualTo(14));
+    int hour = Integer.parseInt(resolved.split(" ")[1].substring(0, 1));
+    assertThat(hour, greaterThanOrEqualTo(2));
+    assertThat(hour, lessThanOrEqualTo(3));
+  }
+
+  @Test
+  void dayOfMonthExistsInEveryMonth() {
+    for (int i = 0; i < 100; i++) {
+      String dom = CronHash.resolve("0 0 H * *", "agent" + i).split(" ")[2];
+      assertThat(Integer.parseInt(dom), lessThanOrEqualTo(28));
+    }
+  }
+
+  @Test
+  void invalidRange() {
+    assertThrows(IllegalArgumentException.class, () -> CronHash.resolve("0 H(20-25) * * *", "agent"));
+    assertThrows(IllegalArgumentException.class, () -> CronHash.resolve("H(5-1) 0 * * *", "agent"));
+    assertThrows(IllegalArgumentException.class, () -> new RecurringMaintenanceWindow("0 H(20-25) * * *", "test", true, true, "10",
+        "1h", "test", null, 0));
+  }
+}
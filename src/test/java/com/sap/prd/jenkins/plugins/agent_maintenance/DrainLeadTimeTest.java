@@ -0,0 +1,51 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test the computation of the drain lead time.
+ */
+class DrainLeadTimeTest {
+
+  @Test
+  void noLeadTimeWithoutEnoughTasks() {
+    DrainLeadTime drainLeadTime = new DrainLeadTime();
+    assertThat(drainLeadTime.getLeadTime("agent"), is(nullValue()));
+    for (int i = 1; i < DrainLeadTime.MIN_SAMPLES; i++) {
+      drainLeadTime.record("agent", Duration.ofMinutes(i).toMillis());
+    }
+    assertThat(drainLeadTime.getLeadTime("agent"), is(nullValue()));
+  }
+
+  @Test
+  void leadTimeIsPercentileOfRecentTasks() {
+    DrainLeadTime drainLeadTime = new DrainLeadTime();
+    for (int i = 1; i <= 10; i++) {
+      drainLeadTime.record("agent", Duration.ofMinutes(i).toMillis());
+    }
+    assertThat(drainLeadTime.getLeadTime("agent"), is(Duration.ofMinutes(9)));
+
+    // only the most recent tasks count
+    for (int i = 0; i < DrainLeadTime.HISTORY_SIZE; i++) {
+      drainLeadTime.record("agent", Duration.ofMinutes(2).toMillis());
+    }
+    assertThat(drainLeadTime.getLeadTime("agent"), is(Duration.ofMinutes(2)));
+  }
+
+  @Test
+  void leadTimeIsCapped() {
+    DrainLeadTime drainLeadTime = new DrainLeadTime();
+    for (int i = 0; i < DrainLeadTime.MIN_SAMPLES; i++) {
+      drainLeadTime.record("agent", Duration.ofDays(1).toMillis());
+    }
+    assertThat(drainLeadTime.getLeadTime("agent"), is(Duration.ofMinutes(DrainLeadTime.MAX_LEAD_MINUTES)));
+    drainLeadTime.rename("agent", "renamed");
+    assertThat(drainLeadTime.getLeadTime("agent"), is(nullValue()));
+    assertThat(drainLeadTime.getLeadTime("renamed"), is(Duration.ofMinutes(DrainLeadTime.MAX_LEAD_MINUTES)));
+  }
+}
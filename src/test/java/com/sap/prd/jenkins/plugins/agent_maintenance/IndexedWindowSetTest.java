@@ -0,0 +1,55 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+/** Tests that the id index of the window sets stays consistent. */
+class IndexedWindowSetTest {
+
+  private static MaintenanceWindow window(int day, String id) {
+    LocalDateTime start = LocalDateTime.of(2099, 1, day, 10, 0);
+    return new MaintenanceWindow(start, start.plusHours(1), "test", true, true, 10, "user", id);
+  }
+
+  @Test
+  void indexFollowsModifications() {
+    MaintenanceWindow mw1 = window(2, "1");
+    MaintenanceWindow mw2 = window(1, "2");
+    IndexedWindowSet.Sorted set = IndexedWindowSet.Sorted.of(List.of(mw1, mw2));
+    assertThat(set, contains(mw2, mw1));
+    assertThat(set.first(), is(sameInstance(mw2)));
+    assertThat(set.get("1"), is(sameInstance(mw1)));
+
+    // an equal window with a different id removes the stored instance
+    assertThat(set.remove(window(2, "other")), is(true));
+    assertThat(set.get("1"), is(nullValue()));
+
+    set.removeIf(mw -> mw.getId().equals("2"));
+    assertThat(set.get("2"), is(nullValue()));
+    assertThat(set.isEmpty(), is(true));
+
+    set.add(mw1);
+    assertThat(set.removeById("1"), is(sameInstance(mw1)));
+    assertThat(set.removeById("1"), is(nullValue()));
+  }
+
+  @Test
+  void definitionsLookUpWindowsById() {
+    MaintenanceDefinitions md = new MaintenanceDefinitions(new TreeSet<>(List.of(window(1, "1"))), new HashSet<>());
+    assertThat(md.getScheduledWindow("1").getId(), is("1"));
+    md.getScheduled().clear();
+    assertThat(md.getScheduledWindow("1"), is(nullValue()));
+    assertThat(MaintenanceDefinitions.EMPTY.getScheduledWindow("1"), is(nullValue()));
+    assertThrows(UnsupportedOperationException.class, () -> MaintenanceDefinitions.EMPTY.getScheduled().add(window(1, "1")));
+  }
+}
@@ -1,8 +1,10 @@
 package com.sap.prd.jenkins.plugins.agent_maintenance;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -65,6 +67,26 @@ class MaintenanceActionTest extends BasePermissionChecks {
     assertThat(managePage.querySelector("#" + maintenanceId + " .am__action-delete"), is(notNullValue()));
   }
 
+  @Test
+  void remoteApiExportsMaintenanceWindows() throws Exception {
+    WebClient w = rule.createWebClient();
+    w.login(READER);
+    String json = w.goTo(agentMaintenanceUrl + "/api/json?tree=computerName,maintenanceWindows[id,reason]",
+        "application/json").getWebResponse().getContentAsString();
+    assertThat(json, containsString(agent.getNodeName()));
+    assertThat(json, containsString(maintenanceId));
+  }
+
+  @Test
+  void computerApiDoesntExportMaintenanceWindows() throws Exception {
+    WebClient w = rule.createWebClient();
+    w.login(READER);
+    String json = w.goTo(agent.toComputer().getUrl() + "api/json?depth=2", "application/json")
+        .getWebResponse().getContentAsString();
+    assertThat(json, containsString(MaintenanceAction.class.getName()));
+    assertThat(json, not(containsString(maintenanceId)));
+  }
+
   @Test
   void extendedReadPermissionCantPost() {
     MaintenanceAction action = new MaintenanceAction((SlaveComputer) agent.toComputer());
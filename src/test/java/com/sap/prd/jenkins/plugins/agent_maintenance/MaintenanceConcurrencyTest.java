@@ -0,0 +1,123 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import static com.sap.prd.jenkins.plugins.agent_maintenance.MaintenanceWindow.DATE_FORMATTER;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import hudson.model.Node;
+import hudson.model.Slave;
+import hudson.slaves.RetentionStrategy.Always;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Test the limit of agents in maintenance per label.
+ */
+@WithJenkins
+class MaintenanceConcurrencyTest extends BaseIntegrationTest {
+
+  private Slave getPoolAgent(String name) throws Exception {
+    return getPoolAgent(name, "pool");
+  }
+
+  private Slave getPoolAgent(String name, String labels) throws Exception {
+    Slave agent = rule.createSlave(name, labels, null);
+    rule.waitOnline(agent);
+    agent.setRetentionStrategy(new AgentMaintenanceRetentionStrategy(new Always()));
+    return agent;
+  }
+
+  @Test
+  void agentsOfLabelEnterMaintenanceOneAfterAnother() throws Exception {
+    MaintenanceConcurrencyLimit limit = new MaintenanceConcurrencyLimit("pool");
+    limit.setMaxAgents(1);
+    MaintenanceConfiguration.getInstance().setConcurrencyLimits(List.of(limit));
+    MaintenanceConcurrency concurrency = MaintenanceConcurrency.get();
+
+    List<Slave> agents = new ArrayList<>();
+    List<MaintenanceWindow> windows = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      Slave agent = getPoolAgent("pool" + i);
+      LocalDateTime start = LocalDateTime.now().minusMinutes(10 - i);
+      MaintenanceWindow mw = new MaintenanceWindow(start.format(DATE_FORMATTER), start.plusHours(2).format(DATE_FORMATTER),
+          "patching", true, true, "0", "test", null);
+      maintenanceHelper.addMaintenanceWindow(agent.getNodeName(), mw);
+      agents.add(agent);
+      windows.add(mw);
+    }
+    triggerCheckCycle(agents.get(0));
+    triggerCheckCycle(agents.get(2));
+    triggerCheckCycle(agents.get(1));
+    waitForDisconnect(agents.get(0), windows.get(0));
+    assertThat(concurrency.isDeferred(agents.get(1).getNodeName()), is(true));
+    assertThat(concurrency.isDeferred(agents.get(2).getNodeName()), is(true));
+    assertThat(agents.get(1).toComputer().isAcceptingTasks(), is(true));
+    assertThat(agents.get(2).toComputer().isOnline(), is(true));
+
+    maintenanceHelper.deleteMaintenanceWindow(agents.get(0).getNodeName(), windows.get(0).getId());
+    triggerCheckCycle(agents.get(0));
+    // the window of the second agent started first
+    triggerCheckCycle(agents.get(2));
+    assertThat(concurrency.isDeferred(agents.get(2).getNodeName()), is(true));
+    triggerCheckCycle(agents.get(1));
+    assertThat(concurrency.isDeferred(agents.get(1).getNodeName()), is(false));
+    assertThat(windows.get(1).getDeferredStart(), is(notNullValue()));
+    waitForDisconnect(agents.get(1), windows.get(1));
+    assertThat(agents.get(2).toComputer().isOnline(), is(true));
+  }
+
+  @Test
+  void waitingAgentDoesntHoldBackOtherLabels() throws Exception {
+    MaintenanceConcurrencyLimit pool = new MaintenanceConcurrencyLimit("pool");
+    pool.setMaxAgents(1);
+    MaintenanceConcurrencyLimit shared = new MaintenanceConcurrencyLimit("shared");
+    shared.setMaxAgents(2);
+    MaintenanceConfiguration.getInstance().setConcurrencyLimits(List.of(pool, shared));
+    MaintenanceConcurrency concurrency = MaintenanceConcurrency.get();
+
+    List<Slave> agents = List.of(getPoolAgent("first", "pool"), getPoolAgent("both", "pool shared"),
+        getPoolAgent("shared", "shared"));
+    List<MaintenanceWindow> windows = new ArrayList<>();
+    for (int i = 0; i < agents.size(); i++) {
+      LocalDateTime start = LocalDateTime.now().minusMinutes(10 - i);
+      MaintenanceWindow mw = new MaintenanceWindow(start.format(DATE_FORMATTER), start.plusHours(2).format(DATE_FORMATTER),
+          "patching", true, true, "0", "test", null);
+      maintenanceHelper.addMaintenanceWindow(agents.get(i).getNodeName(), mw);
+      windows.add(mw);
+    }
+    triggerCheckCycle(agents.get(0));
+    triggerCheckCycle(agents.get(1));
+    triggerCheckCycle(agents.get(2));
+    waitForDisconnect(agents.get(0), windows.get(0));
+    // the second agent waits for the pool limit, the shared limit still has room for both
+    assertThat(concurrency.isDeferred(agents.get(1).getNodeName()), is(true));
+    assertThat(concurrency.isDeferred(agents.get(2).getNodeName()), is(false));
+    waitForDisconnect(agents.get(2), windows.get(2));
+  }
+
+  private static Node node(int executors) {
+    Node node = mock(Node.class);
+    when(node.getNumExecutors()).thenReturn(executors);
+    return node;
+  }
+
+  @Test
+  void executorPercentage() {
+    MaintenanceConcurrencyLimit limit = new MaintenanceConcurrencyLimit("pool");
+    limit.setMaxExecutorsPercent(50);
+    Node large = node(4);
+    Node small1 = node(2);
+    Node small2 = node(2);
+    List<Node> agents = List.of(large, small1, small2);
+    assertThat(limit.allows(agents, List.of(), large), is(true));
+    assertThat(limit.allows(agents, List.of(small1), small2), is(true));
+    assertThat(limit.allows(agents, List.of(large), small1), is(false));
+    assertThat(limit.allows(agents, List.of(small1, small2), large), is(false));
+  }
+}
@@ -1,17 +1,24 @@
 package com.sap.prd.jenkins.plugins.agent_maintenance;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import hudson.model.Label;
 import hudson.model.Slave;
 import hudson.model.User;
 import hudson.security.ACL;
 import hudson.security.ACLContext;
 import hudson.security.AccessDeniedException3;
+import hudson.slaves.DumbSlave;
 import hudson.slaves.RetentionStrategy;
 import hudson.slaves.RetentionStrategy.Always;
+import java.util.List;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
@@ -78,4 +85,77 @@ class MaintenanceConfigurationTest extends PermissionSetup {
       assertThrows(AccessDeniedException3.class, () -> config.doRemove(rsp));
     }
   }
+
+  private static MaintenanceSchedule createSchedule(String agent, String label, String reason) {
+    MaintenanceSchedule schedule = new MaintenanceSchedule();
+    schedule.setAgent(agent);
+    schedule.setLabel(label);
+    schedule.setScheduled(List.of(
+        new MaintenanceWindow("2099-01-01 10:00", "2099-01-01 12:00", reason, true, true, "10", "admin", null)));
+    schedule.setRecurring(List.of(
+        new RecurringMaintenanceWindow("0 2 * * 6", reason, true, true, "10", "2h", "admin", null, 0)));
+    return schedule;
+  }
+
+  @Test
+  void schedulesAreAppliedToAgentsAndLabels() throws Exception {
+    Slave labeled = rule.createOnlineSlave(Label.get("maintained"));
+    MaintenanceHelper helper = MaintenanceHelper.getInstance();
+    MaintenanceConfiguration config = MaintenanceConfiguration.getInstance();
+    config.setSchedules(List.of(createSchedule(agent.getNodeName(), null, "agent"),
+        createSchedule(null, "maintained", "label")));
+
+    assertThat(helper.getMaintenanceWindows(agent.getNodeName()), hasSize(1));
+    assertThat(helper.getRecurringMaintenanceWindows(agent.getNodeName()), hasSize(1));
+    assertThat(helper.getMaintenanceWindows(labeled.getNodeName()), hasSize(1));
+    assertThat(helper.getMaintenanceWindows(labeled.getNodeName()).first().getReason(), is("label"));
+    assertThat(helper.getMaintenanceWindows(agent2.getNodeName()), is(empty()));
+  }
+
+  @Test
+  void reapplyingSchedulesOnlyChangesModifiedAgents() throws Exception {
+    MaintenanceHelper helper = MaintenanceHelper.getInstance();
+    MaintenanceConfiguration config = MaintenanceConfiguration.getInstance();
+    config.setSchedules(List.of(createSchedule(agent.getNodeName(), null, "first"),
+        createSchedule(agent2.getNodeName(), null, "second")));
+    MaintenanceWindow manual = new MaintenanceWindow("2099-02-01 10:00", "2099-02-01 12:00", "manual", true, true, "10",
+        "admin", null);
+    helper.addMaintenanceWindow(agent.getNodeName(), manual);
+    MaintenanceWindow unchanged = helper.getMaintenanceWindows(agent2.getNodeName()).first();
+
+    config.setSchedules(List.of(createSchedule(agent.getNodeName(), null, "changed"),
+        createSchedule(agent2.getNodeName(), null, "second")));
+    // the agent with unchanged schedule keeps its instances
+    assertThat(helper.getMaintenanceWindows(agent2.getNodeName()).first(), is(sameInstance(unchanged)));
+    // windows that are not part of the configuration are kept
+    assertThat(helper.getMaintenanceWindows(agent.getNodeName()), hasSize(2));
+    assertThat(helper.getMaintenanceWindow(agent.getNodeName(), manual.getId()), is(notNullValue()));
+    assertThat(helper.getMaintenanceWindows(agent.getNodeName()).first().getReason(), is("changed"));
+
+    config.setSchedules(List.of());
+    assertThat(helper.getMaintenanceWindows(agent.getNodeName()), hasSize(1));
+    assertThat(helper.getRecurringMaintenanceWindows(agent.getNodeName()), is(empty()));
+    assertThat(helper.getMaintenanceWindows(agent2.getNodeName()), is(empty()));
+  }
+
+  @Test
+  void agentsJoiningAndLeavingLabelsAreUpdated() throws Exception {
+    MaintenanceHelper helper = MaintenanceHelper.getInstance();
+    MaintenanceConfiguration config = MaintenanceConfiguration.getInstance();
+    config.setSchedules(List.of(createSchedule(null, "maintained", "label")));
+
+    Slave joined = rule.createOnlineSlave(Label.get("maintained"));
+    assertThat(helper.getMaintenanceWindows(joined.getNodeName()), hasSize(1));
+    assertThat(helper.getRecurringMaintenanceWindows(joined.getNodeName()), hasSize(1));
+
+    DumbSlave left = new DumbSlave(joined.getNodeName(), joined.getRemoteFS(), joined.getLauncher());
+    left.setLabelString("other");
+    rule.jenkins.getNodesObject().replaceNode(joined, left);
+    assertThat(helper.getMaintenanceWindows(left.getNodeName()), is(empty()));
+    assertThat(helper.getRecurringMaintenanceWindows(left.getNodeName()), is(empty()));
+
+    // the agent left the label, so applying the schedules again keeps it without the windows
+    config.setSchedules(List.of(createSchedule(null, "maintained", "changed")));
+    assertThat(helper.getMaintenanceWindows(left.getNodeName()), is(empty()));
+  }
 }
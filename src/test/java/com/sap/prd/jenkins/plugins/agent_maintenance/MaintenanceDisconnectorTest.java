@@ -0,0 +1,58 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import static com.sap.prd.jenkins.plugins.agent_maintenance.MaintenanceWindow.DATE_FORMATTER;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+import hudson.model.Slave;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Test disconnecting agents from the queue.
+ */
+@WithJenkins
+class MaintenanceDisconnectorTest extends BaseIntegrationTest {
+
+  @Test
+  @Timeout(120)
+  void agentsAreDisconnectedOneAfterAnother() throws Exception {
+    MaintenanceDisconnector.ENABLED = true;
+    MaintenanceDisconnector.PER_SECOND = 1;
+    try {
+      List<Slave> agents = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        Slave agent = getAgent("disconnect" + i);
+        LocalDateTime start = LocalDateTime.now().minusMinutes(1);
+        maintenanceHelper.addMaintenanceWindow(agent.getNodeName(), new MaintenanceWindow(start.format(DATE_FORMATTER),
+            start.plusHours(1).format(DATE_FORMATTER), "test", true, true, "-1", "test", null));
+        agents.add(agent);
+      }
+      long disconnected = MaintenanceDisconnector.DISCONNECTED.sum();
+      for (Slave agent : agents) {
+        triggerCheckCycle(agent);
+        // checking again doesn't queue the agent twice
+        triggerCheckCycle(agent);
+      }
+      assertThat(MaintenanceDisconnector.get().getPendingCount(), greaterThanOrEqualTo(1));
+
+      for (Slave agent : agents) {
+        while (agent.getChannel() != null) {
+          TimeUnit.MILLISECONDS.sleep(100);
+        }
+        assertThat(agent.toComputer().getOfflineCause(), is(instanceOf(MaintenanceOfflineCause.class)));
+      }
+      assertThat(MaintenanceDisconnector.DISCONNECTED.sum() - disconnected, is(3L));
+    } finally {
+      MaintenanceDisconnector.ENABLED = false;
+      MaintenanceDisconnector.PER_SECOND = 20;
+    }
+  }
+}
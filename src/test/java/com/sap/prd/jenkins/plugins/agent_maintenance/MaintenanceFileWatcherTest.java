@@ -0,0 +1,52 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import hudson.XmlFile;
+import hudson.model.Slave;
+import java.io.File;
+import java.util.HashSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Test reloading of externally changed maintenance definition files.
+ */
+@WithJenkins
+class MaintenanceFileWatcherTest extends BaseIntegrationTest {
+
+  @AfterEach
+  void stopWatcher() {
+    MaintenanceFileWatcher.stop();
+  }
+
+  @Test
+  void externalChangesAreReloaded() throws Exception {
+    Slave agent = rule.createOnlineSlave();
+    String agentName = agent.getNodeName();
+    maintenanceHelper.addMaintenanceWindow(agentName,
+        new MaintenanceWindow("1970-01-01 11:00", "2099-12-31 23:59", "test", true, true, "10", "user", null));
+    MaintenanceFileWatcher.start();
+
+    File file = new File(new File(new File(rule.jenkins.getRootDir(), "nodes"), agentName), XmlMaintenanceStore.MAINTENANCE_FILE_NAME);
+    long lastModified = file.lastModified();
+    MaintenanceDefinitions external = new MaintenanceDefinitions(new TreeSet<>(), new HashSet<>());
+    external.getScheduled().add(new MaintenanceWindow("2099-01-01 11:00", "2099-01-01 12:00", "external", true, true, "10",
+        "user", null));
+    external.getScheduled().add(new MaintenanceWindow("2099-02-01 11:00", "2099-02-01 12:00", "external", true, true, "10",
+        "user", null));
+    new XmlFile(file).write(external);
+    file.setLastModified(lastModified + 2000);
+
+    long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(60);
+    while (maintenanceHelper.getMaintenanceWindows(agentName).size() != 2 && System.currentTimeMillis() < timeout) {
+      TimeUnit.MILLISECONDS.sleep(200);
+    }
+    assertThat(maintenanceHelper.getMaintenanceWindows(agentName).size(), is(2));
+    assertThat(maintenanceHelper.getMaintenanceWindows(agentName).first().getReason(), is("external"));
+  }
+}
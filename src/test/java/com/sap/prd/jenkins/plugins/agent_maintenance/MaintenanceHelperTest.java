@@ -2,9 +2,20 @@ package com.sap.prd.jenkins.plugins.agent_maintenance;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.XmlFile;
 import hudson.model.Slave;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 
@@ -37,6 +48,114 @@ class MaintenanceHelperTest extends BaseIntegrationTest {
     assertThat(mwSet.size(), is(0));
   }
 
+  @Test
+  void reloadPicksUpExternalChanges() throws Exception {
+    Slave agent = rule.createOnlineSlave();
+    String agentName = agent.getNodeName();
+    MaintenanceWindow mw = new MaintenanceWindow("1970-01-01 11:00", "2099-12-31 23:59", "test", true, true, "10", "user", null);
+    maintenanceHelper.addMaintenanceWindow(agentName, mw);
+    mw.setAborted(true);
+    // nothing changed outside of Jenkins
+    assertThat(maintenanceHelper.reloadMaintenanceDefinitions(agentName), is(false));
+
+    File file = new File(new File(new File(rule.jenkins.getRootDir(), "nodes"), agentName), XmlMaintenanceStore.MAINTENANCE_FILE_NAME);
+    long lastModified = file.lastModified();
+    MaintenanceDefinitions external = (MaintenanceDefinitions) new XmlFile(file).read();
+    external.getScheduled().add(new MaintenanceWindow("2099-01-01 11:00", "2099-01-01 12:00", "external", true, true, "10",
+        "user", null));
+    new XmlFile(file).write(external);
+    assertThat(file.setLastModified(lastModified + 2000), is(true));
+
+    MaintenanceDefinitions md = maintenanceHelper.getMaintenanceDefinitions(agentName);
+    assertThat(maintenanceHelper.reloadMaintenanceDefinitions(agentName), is(true));
+    assertThat(maintenanceHelper.getMaintenanceDefinitions(agentName), is(sameInstance(md)));
+    assertThat(md.getScheduled().size(), is(2));
+    assertThat(maintenanceHelper.getMaintenanceWindow(agentName, mw.getId()).buildsHaveBeenAborted(), is(true));
+    assertThat(maintenanceHelper.reloadMaintenanceDefinitions(agentName), is(false));
+  }
+
+  @Test
+  void unusedEmptyDefinitionsAreEvicted() throws Exception {
+    String emptyAgent = rule.createOnlineSlave().getNodeName();
+    String usedAgent = rule.createOnlineSlave().getNodeName();
+    assertThat(maintenanceHelper.getMaintenance(emptyAgent), is(nullValue()));
+    MaintenanceDefinitions empty = maintenanceHelper.getMaintenanceDefinitions(emptyAgent);
+    MaintenanceWindow mw = new MaintenanceWindow("2099-01-01 11:00", "2099-12-31 23:59", "test", true, true, "10", "user", null);
+    maintenanceHelper.addMaintenanceWindow(usedAgent, mw);
+    MaintenanceDefinitions used = maintenanceHelper.getMaintenanceDefinitions(usedAgent);
+
+    // both were used since the last run
+    maintenanceHelper.evictUnusedDefinitions();
+    maintenanceHelper.evictUnusedDefinitions();
+    assertThat(maintenanceHelper.getMaintenanceDefinitions(emptyAgent), is(not(sameInstance(empty))));
+    assertThat(maintenanceHelper.getMaintenanceDefinitions(usedAgent), is(sameInstance(used)));
+    assertThat(maintenanceHelper.getMaintenanceWindow(usedAgent, mw.getId()), is(mw));
+  }
+
+  @Test
+  void deleteSeveralWindowsSavesOnce() throws Exception {
+    String agentName = rule.createOnlineSlave().getNodeName();
+    AtomicInteger saves = new AtomicInteger();
+    maintenanceHelper.setStore(new InMemoryMaintenanceStore() {
+      @Override
+      public void save(@NonNull String computerName, @NonNull MaintenanceDefinitions md) {
+        saves.incrementAndGet();
+        super.save(computerName, md);
+      }
+    });
+    try {
+      List<String> ids = new ArrayList<>();
+      for (int i = 1; i <= 3; i++) {
+        MaintenanceWindow mw = new MaintenanceWindow("2099-01-0" + i + " 11:00", "2099-01-0" + i + " 12:00", "test", true, true, "10",
+            "user", null);
+        maintenanceHelper.addMaintenanceWindow(agentName, mw);
+        ids.add(mw.getId());
+      }
+      String unknown = UUID.randomUUID().toString();
+      ids.add(unknown);
+      saves.set(0);
+
+      Map<String, Boolean> result = maintenanceHelper.deleteMaintenanceWindows(agentName, ids);
+      assertThat(saves.get(), is(1));
+      assertThat(result.get(ids.get(0)), is(true));
+      assertThat(result.get(unknown), is(false));
+      assertThat(maintenanceHelper.getMaintenanceWindows(agentName).isEmpty(), is(true));
+
+      maintenanceHelper.deleteMaintenanceWindows(agentName, List.of(unknown));
+      assertThat(saves.get(), is(1));
+    } finally {
+      maintenanceHelper.setStore(null);
+    }
+  }
+
+  @Test
+  void replaceOnlyAppliesChanges() throws Exception {
+    String agentName = rule.createOnlineSlave().getNodeName();
+    MaintenanceWindow active = new MaintenanceWindow("1970-01-01 11:00", "2099-12-31 23:59", "active", true, true, "10", "user", null);
+    MaintenanceWindow other = new MaintenanceWindow("2099-01-01 11:00", "2099-01-01 12:00", "other", true, true, "10", "user", null);
+    maintenanceHelper.addMaintenanceWindow(agentName, active);
+    maintenanceHelper.addMaintenanceWindow(agentName, other);
+    active.setAborted(true);
+
+    // the form creates new instances with the same content
+    List<MaintenanceWindow> submitted = List.of(
+        new MaintenanceWindow("1970-01-01 11:00", "2099-12-31 23:59", "active", true, true, "10", "user", active.getId()),
+        new MaintenanceWindow("2099-01-01 11:00", "2099-01-01 12:00", "other", true, true, "10", "user", other.getId()));
+    MaintenanceDiff diff = maintenanceHelper.replaceMaintenanceDefinitions(agentName, submitted, List.of());
+    assertThat(diff.hasChanges(), is(false));
+    assertThat(diff.getUnchanged(), is(2));
+    assertThat(maintenanceHelper.getMaintenanceWindow(agentName, active.getId()), is(sameInstance(active)));
+
+    MaintenanceWindow changed = new MaintenanceWindow("2099-01-01 11:00", "2099-01-01 13:00", "other", true, true, "10", "user",
+        other.getId());
+    MaintenanceWindow added = new MaintenanceWindow("2099-02-01 11:00", "2099-02-01 13:00", "added", true, true, "10", "user", null);
+    diff = maintenanceHelper.replaceMaintenanceDefinitions(agentName, List.of(changed, added), List.of());
+    assertThat(diff.getUpdated(), is(List.of(other.getId())));
+    assertThat(diff.getAdded(), is(List.of(added.getId())));
+    assertThat(diff.getRemoved(), is(List.of(active.getId())));
+    assertThat(maintenanceHelper.getMaintenanceWindow(agentName, other.getId()), is(sameInstance(changed)));
+  }
+
   @Test
   void parseDurationString() {
     assertThat(MaintenanceHelper.parseDurationString("10"), is(10));
@@ -0,0 +1,102 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the maintenance index. */
+class MaintenanceIndexTest {
+
+  private static MaintenanceDefinitions createDefinitions(LocalDateTime start, LocalDateTime end) {
+    MaintenanceDefinitions md = new MaintenanceDefinitions(new TreeSet<>(), new HashSet<>());
+    md.getScheduled().add(new MaintenanceWindow(start, end, "test", true, true, "10", "user", null));
+    return md;
+  }
+
+  private static MaintenanceIndex createIndex(int agentCount, LocalDateTime now) {
+    MaintenanceIndex index = new MaintenanceIndex();
+    for (int i = 0; i < agentCount; i++) {
+      LocalDateTime start = i % 2 == 0 ? now.minusHours(1) : now.plusDays(1);
+      index.update("agent" + i, createDefinitions(start, start.plusDays(2)), now);
+    }
+    return index;
+  }
+
+  @Test
+  void transitionsAreReported() {
+    LocalDateTime now = LocalDateTime.now();
+    MaintenanceIndex index = new MaintenanceIndex();
+    MaintenanceDefinitions md = createDefinitions(now.plusMinutes(5), now.plusMinutes(10));
+    index.update("agent", md, now);
+    assertThat(index.getAgentsInMaintenance(), is(0));
+
+    LocalDateTime later = now.plusMinutes(6);
+    assertThat(index.hasDueTransitions(now), is(false));
+    assertThat(index.hasDueTransitions(later), is(true));
+    assertThat(index.pollDueAgents(later), contains("agent"));
+    assertThat(index.hasDueTransitions(later), is(false));
+    assertThat(index.pollDueAgents(later), is(empty()));
+    index.update("agent", md, later);
+    assertThat(index.getAgentsInMaintenance(), is(1));
+
+    LocalDateTime over = now.plusMinutes(11);
+    assertThat(index.pollDueAgents(over), contains("agent"));
+    index.update("agent", md, over);
+    assertThat(index.getAgentsInMaintenance(), is(0));
+    assertThat(index.getAgentsWithWindows(), is(1));
+  }
+
+  @Test
+  void removedAgentsAreNotCounted() {
+    LocalDateTime now = LocalDateTime.now();
+    MaintenanceIndex index = createIndex(4, now);
+    index.remove("agent0");
+    index.remove("agent1");
+    assertThat(index.getAgentsWithWindows(), is(2));
+    assertThat(index.getAgentsInMaintenance(), is(1));
+    index.update("agent2", new MaintenanceDefinitions(new TreeSet<>(), new HashSet<>()), now);
+    assertThat(index.getAgentsWithWindows(), is(1));
+    assertThat(index.getAgentsInMaintenance(), is(0));
+  }
+
+  @Test
+  void summaryIsDerivedFromDefinitions() {
+    LocalDateTime now = LocalDateTime.now();
+    MaintenanceIndex index = new MaintenanceIndex();
+    MaintenanceDefinitions md = createDefinitions(now.plusDays(1), now.plusDays(2));
+    md.getScheduled().add(new MaintenanceWindow(now.plusDays(3), now.plusDays(4), "test", true, true, "10", "user", null));
+    md.getRecurring().add(new RecurringMaintenanceWindow("0 2 * * *", "test", true, true, "10m", "60m", "user", null, 0));
+    index.update("agent", md, 42, now);
+
+    MaintenanceSummary summary = index.getSummary("agent");
+    assertThat(summary.getWindowCount(), is(2));
+    assertThat(summary.getRecurringCount(), is(1));
+    assertThat(summary.getEarliestStart(), is(now.plusDays(1)));
+    assertThat(summary.getLatestEnd(), is(now.plusDays(4)));
+    assertThat(summary.getLastModified(), is(42L));
+    assertThat(index.getSummary("unknown"), is(nullValue()));
+  }
+
+  @Test
+  void persistedSummariesAreCounted() {
+    LocalDateTime now = LocalDateTime.now();
+    MaintenanceIndex index = new MaintenanceIndex();
+    index.load(List.of(
+        new MaintenanceSummary("active", 1, 0, now.minusHours(1), now.plusHours(1), 0),
+        new MaintenanceSummary("future", 2, 0, now.plusHours(1), now.plusHours(5), 0),
+        new MaintenanceSummary("recurringOnly", 0, 1, null, null, 0)), now);
+    assertThat(index.getAgentsWithWindows(), is(2));
+    assertThat(index.getAgentsInMaintenance(), is(1));
+    assertThat(index.getSummaries().size(), is(3));
+    // definitions of the agent need to be loaded once the first window starts
+    assertThat(index.pollDueAgents(now.plusHours(2)), contains("active", "future"));
+  }
+}
@@ -1,6 +1,7 @@
 package com.sap.prd.jenkins.plugins.agent_maintenance;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
@@ -9,8 +10,20 @@ import hudson.model.ManagementLink;
 import hudson.model.User;
 import hudson.security.ACL;
 import hudson.security.ACLContext;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.ExtensionList;
+import java.net.URL;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import jenkins.management.Badge;
 import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.htmlunit.HttpMethod;
+import org.htmlunit.Page;
+import org.htmlunit.WebRequest;
 import org.htmlunit.html.HtmlPage;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -84,6 +97,157 @@ class MaintenanceLinkTest extends BasePermissionChecks {
     assertThat(managePage.getElementById(maintenanceIdRestricted), is(notNullValue()));
   }
 
+  @Test
+  void badgeCountsAgents() throws Exception {
+    MaintenanceLink instance = ManagementLink.all().get(MaintenanceLink.class);
+    assertThat(instance, is(notNullValue()));
+    int total = maintenanceHelper.getAgentsWithMaintenanceWindows();
+    int active = maintenanceHelper.getAgentsInMaintenance();
+    Badge badge = instance.getBadge();
+    assertThat(badge.getText(), is(active + "/" + total));
+    assertThat(badge.getSeverity(), is(Badge.Severity.WARNING));
+
+    maintenanceHelper.deleteMaintenanceWindow(agentRestricted.getNodeName(), maintenanceIdRestricted);
+    assertThat(maintenanceHelper.getAgentsWithMaintenanceWindows(), is(total - 1));
+    assertThat(maintenanceHelper.getAgentsInMaintenance(), is(active - 1));
+  }
+
+  @Test
+  void remoteApiExportsAgents() throws Exception {
+    WebClient w = rule.createWebClient();
+    w.login(CONFIGURE);
+    String json = w.goTo("agent-maintenances/api/json?tree=agents[computerName,nextStart,maintenanceWindows[id]]",
+        "application/json").getWebResponse().getContentAsString();
+    assertThat(json, containsString(agent.getNodeName()));
+    assertThat(json, containsString(maintenanceId));
+  }
+
+  @Test
+  void remoteApiRequiresSystemRead() throws Exception {
+    WebClient w = rule.createWebClient();
+    w.login(USER);
+    Page page = w.withThrowExceptionOnFailingStatusCode(false).goTo("agent-maintenances/api/json", null);
+    assertThat(page.getWebResponse().getStatusCode(), is(403));
+  }
+
+  @Test
+  void prometheusExposesStateWithoutReading() throws Exception {
+    WebClient w = rule.createWebClient();
+    w.login(CONFIGURE);
+    long loads = MaintenanceMetrics.STORE_LOAD.getCount();
+    String metrics = w.goTo("agent-maintenances/prometheus", "text/plain").getWebResponse().getContentAsString();
+    assertThat(metrics, containsString("agent_maintenance_scheduled_windows{agent=\"" + agent.getNodeName() + "\"} 2"));
+    assertThat(metrics, containsString("agent_maintenance_active{agent=\"" + agent.getNodeName() + "\"} 1"));
+    assertThat(metrics, containsString("agent_maintenance_retention_check_seconds_count"));
+    assertThat(MaintenanceMetrics.STORE_LOAD.getCount(), is(loads));
+  }
+
+  @Test
+  void prometheusRequiresSystemRead() throws Exception {
+    WebClient w = rule.createWebClient();
+    w.login(USER);
+    Page page = w.withThrowExceptionOnFailingStatusCode(false).goTo("agent-maintenances/prometheus", null);
+    assertThat(page.getWebResponse().getStatusCode(), is(403));
+  }
+
+  private static JSONObject importWindows(WebClient w, String body, boolean dryRun) throws Exception {
+    WebRequest request = new WebRequest(new URL(w.getContextPath() + "agent-maintenances/import?format=csv&dryRun=" + dryRun),
+        HttpMethod.POST);
+    request.setRequestBody(body);
+    w.addCrumb(request);
+    return JSONObject.fromObject(w.getPage(request).getWebResponse().getContentAsString());
+  }
+
+  @Test
+  void reimportOfExportChangesNothing() throws Exception {
+    WebClient w = rule.createWebClient();
+    w.login(CONFIGURE);
+    String csv = w.goTo("agent-maintenances/export?format=csv", "text/csv").getWebResponse().getContentAsString();
+    assertThat(csv, containsString(maintenanceId));
+
+    // windows of agentRestricted are exported but may not be changed by the user, so nothing is imported
+    w.setThrowExceptionOnFailingStatusCode(false);
+    JSONObject result = importWindows(w, csv, false);
+    assertThat(result.getJSONArray("errors").size(), is(1));
+    assertThat(result.getInt("unchanged"), is(0));
+
+    String own = csv.lines().filter(line -> !line.startsWith(agentRestricted.getNodeName() + ","))
+        .collect(Collectors.joining("\n"));
+    w.setThrowExceptionOnFailingStatusCode(true);
+    result = importWindows(w, own, false);
+    assertThat(result.getInt("added"), is(0));
+    assertThat(result.getInt("updated"), is(0));
+    assertThat(result.getInt("unchanged"), is(2));
+    assertThat(result.getJSONArray("errors").size(), is(0));
+  }
+
+  @Test
+  void importForbiddenAgentChangesNothing() throws Exception {
+    WebClient w = rule.createWebClient();
+    w.login(CONFIGURE);
+    String csv = "computerName,startTime,endTime,reason\n"
+        + agent.getNodeName() + ",2099-01-01 10:00,2099-01-01 12:00,imported\n"
+        + agentRestricted.getNodeName() + ",2099-01-01 10:00,2099-01-01 12:00,imported\n"
+        + "unknown,2099-01-01 10:00,2099-01-01 12:00,imported\n";
+    int count = maintenanceHelper.getMaintenanceWindows(agent.getNodeName()).size();
+    w.setThrowExceptionOnFailingStatusCode(false);
+    JSONObject result = importWindows(w, csv, false);
+    assertThat(result.getJSONArray("errors").size(), is(2));
+    assertThat(result.getInt("added"), is(0));
+    assertThat(maintenanceHelper.getMaintenanceWindows(agent.getNodeName()).size(), is(count));
+  }
+
+  @Test
+  void importAddsWindowsOnce() throws Exception {
+    WebClient w = rule.createWebClient();
+    w.login(CONFIGURE);
+    String csv = "computerName,startTime,endTime,reason,maxWaitMinutes\n"
+        + agent.getNodeName() + ",2099-01-01 10:00,2099-01-01 12:00,imported,10\n";
+    int count = maintenanceHelper.getMaintenanceWindows(agent.getNodeName()).size();
+
+    JSONObject result = importWindows(w, csv, true);
+    assertThat(result.getInt("added"), is(1));
+    assertThat(maintenanceHelper.getMaintenanceWindows(agent.getNodeName()).size(), is(count));
+
+    result = importWindows(w, csv, false);
+    assertThat(result.getInt("added"), is(1));
+    assertThat(result.getJSONObject("agents").has(agent.getNodeName()), is(true));
+    assertThat(maintenanceHelper.getMaintenanceWindows(agent.getNodeName()).size(), is(count + 1));
+
+    result = importWindows(w, csv, false);
+    assertThat(result.getInt("added"), is(0));
+    assertThat(result.getInt("unchanged"), is(1));
+    assertThat(maintenanceHelper.getMaintenanceWindows(agent.getNodeName()).size(), is(count + 1));
+  }
+
+  @Test
+  void importIsAttributedToImportingUser() throws Exception {
+    WebClient w = rule.createWebClient();
+    w.login(CONFIGURE);
+    String csv = "computerName,startTime,endTime,reason,userid\n"
+        + agent.getNodeName() + ",2099-03-01 10:00,2099-03-01 12:00,imported,someone-else\n";
+    JSONObject result = importWindows(w, csv, false);
+    assertThat(result.getInt("added"), is(1));
+    String id = (String) result.getJSONObject("agents").getJSONObject(agent.getNodeName()).getJSONArray("added").get(0);
+    assertThat(maintenanceHelper.getMaintenanceWindow(agent.getNodeName(), id).getUserid(), is(CONFIGURE));
+  }
+
+  @Test
+  void importWithInvalidRecordsChangesNothing() throws Exception {
+    WebClient w = rule.createWebClient();
+    w.login(CONFIGURE);
+    String csv = "computerName,startTime,endTime,reason\n"
+        + agent.getNodeName() + ",2099-01-01 10:00,2099-01-01 12:00,imported\n"
+        + agent.getNodeName() + ",tomorrow,2099-01-01 12:00,imported\n";
+    int count = maintenanceHelper.getMaintenanceWindows(agent.getNodeName()).size();
+    WebRequest request = new WebRequest(new URL(w.getContextPath() + "agent-maintenances/import?format=csv"), HttpMethod.POST);
+    request.setRequestBody(csv);
+    w.addCrumb(request);
+    Page page = w.withThrowExceptionOnFailingStatusCode(false).getPage(request);
+    assertThat(page.getWebResponse().getStatusCode(), is(400));
+    assertThat(maintenanceHelper.getMaintenanceWindows(agent.getNodeName()).size(), is(count));
+  }
+
   @Test
   void configurePermissionDoesExposeDeleteLink() throws Exception {
     WebClient w = rule.createWebClient();
@@ -101,4 +265,45 @@ class MaintenanceLinkTest extends BasePermissionChecks {
     assertThat(managePage.querySelector("#" + maintenanceId + " .am__link-delete"), is(notNullValue()));
     assertThat(managePage.querySelector("#" + maintenanceIdRestricted + " .am__link-delete"), is(nullValue()));
   }
+
+  @Test
+  void badgeCostIsIndependentOfAgentCount() throws Exception {
+    AtomicInteger storeCalls = new AtomicInteger();
+    maintenanceHelper.setStore(new InMemoryMaintenanceStore() {
+      @Override
+      @CheckForNull
+      public MaintenanceDefinitions load(@NonNull String computerName) {
+        storeCalls.incrementAndGet();
+        return super.load(computerName);
+      }
+
+      @Override
+      public long getLastModified(@NonNull String computerName) {
+        storeCalls.incrementAndGet();
+        return super.getLastModified(computerName);
+      }
+    });
+    MaintenanceIndex index = maintenanceHelper.getIndex();
+    MaintenanceLink link = ExtensionList.lookupSingleton(MaintenanceLink.class);
+    int total = maintenanceHelper.getAgentsWithMaintenanceWindows();
+    int active = maintenanceHelper.getAgentsInMaintenance();
+    try {
+      LocalDateTime now = LocalDateTime.now();
+      for (int agentCount : new int[] { 10, 10000 }) {
+        // agents that only exist in the index, the badge must not look at any of them
+        for (int i = 0; i < agentCount; i++) {
+          LocalDateTime start = i % 2 == 0 ? now.minusHours(1) : now.plusDays(1);
+          index.update(new MaintenanceSummary("badge" + i, 1, 0, start, start.plusDays(2), 0), now);
+        }
+        Badge badge = link.getBadge();
+        assertThat(badge.getText(), is((active + agentCount / 2) + "/" + (total + agentCount)));
+        assertThat(storeCalls.get(), is(0));
+      }
+    } finally {
+      for (int i = 0; i < 10000; i++) {
+        index.remove("badge" + i);
+      }
+      maintenanceHelper.setStore(null);
+    }
+  }
 }
@@ -0,0 +1,93 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Slave;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.TestExtension;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Test that listeners are notified about the lifecycle of maintenance windows.
+ */
+@WithJenkins
+class MaintenanceListenerTest extends BaseIntegrationTest {
+
+  @Test
+  void createdAndDeleted() throws Exception {
+    String agentName = rule.createOnlineSlave().getNodeName();
+    RecordingListener listener = rule.jenkins.getExtensionList(MaintenanceListener.class).get(RecordingListener.class);
+    MaintenanceWindow mw = new MaintenanceWindow("2099-01-01 11:00", "2099-01-01 12:00", "test", true, true, "10", "user", null);
+    maintenanceHelper.addMaintenanceWindow(agentName, mw);
+    maintenanceHelper.deleteMaintenanceWindow(agentName, mw.getId());
+    assertThat(listener.next(), is("created " + agentName + " " + mw.getId()));
+    assertThat(listener.next(), is("deleted " + agentName + " " + mw.getId()));
+  }
+
+  @Test
+  void maintenanceLifecycle() throws Exception {
+    Slave agent = getAgent("lifecycle");
+    RecordingListener listener = rule.jenkins.getExtensionList(MaintenanceListener.class).get(RecordingListener.class);
+    MaintenanceWindow mw = new MaintenanceWindow("1970-01-01 11:00", "2099-12-31 23:59", "test", true, false, "0", "user", null);
+    maintenanceHelper.addMaintenanceWindow(agent.getNodeName(), mw);
+    assertThat(listener.next(), is("created lifecycle " + mw.getId()));
+
+    triggerCheckCycle(agent);
+    assertThat(listener.next(), is("started lifecycle " + mw.getId()));
+    assertThat(listener.next(), is("aborted lifecycle " + mw.getId()));
+    // started is only reported once
+    triggerCheckCycle(agent);
+    // the disconnect is running, the agent is not disconnected again
+    triggerCheckCycle(agent);
+    assertThat(listener.next(), is("disconnected lifecycle " + mw.getId()));
+    rule.waitUntilNoActivity();
+    assertThat(listener.poll(), is(nullValue()));
+  }
+
+  /**
+   * Records the events.
+   */
+  @TestExtension
+  public static class RecordingListener extends MaintenanceListener {
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+    String next() throws InterruptedException {
+      return events.poll(10, TimeUnit.SECONDS);
+    }
+
+    String poll() throws InterruptedException {
+      return events.poll(1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void onCreated(@NonNull String computerName, @NonNull MaintenanceWindow mw) {
+      events.add("created " + computerName + " " + mw.getId());
+    }
+
+    @Override
+    public void onDeleted(@NonNull String computerName, @NonNull MaintenanceWindow mw) {
+      events.add("deleted " + computerName + " " + mw.getId());
+    }
+
+    @Override
+    public void onStarted(@NonNull String computerName, @NonNull MaintenanceWindow mw) {
+      events.add("started " + computerName + " " + mw.getId());
+    }
+
+    @Override
+    public void onBuildsAborted(@NonNull String computerName, @NonNull MaintenanceWindow mw) {
+      events.add("aborted " + computerName + " " + mw.getId());
+    }
+
+    @Override
+    public void onDisconnected(@NonNull String computerName, @NonNull MaintenanceWindow mw) {
+      events.add("disconnected " + computerName + " " + mw.getId());
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Label;
+import hudson.model.LoadBalancer;
+import hudson.model.Queue;
+import hudson.model.Slave;
+import hudson.slaves.RetentionStrategy.Always;
+import java.time.LocalDateTime;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Test that builds prefer agents with the latest upcoming maintenance.
+ */
+@WithJenkins
+class MaintenanceLoadBalancerTest extends BaseIntegrationTest {
+
+  @Test
+  void prefersAgentsWithoutUpcomingMaintenance() throws Exception {
+    Slave soon = rule.createOnlineSlave(Label.get("balanced"));
+    Slave later = rule.createOnlineSlave(Label.get("balanced"));
+    for (Slave agent : new Slave[] { soon, later }) {
+      agent.setRetentionStrategy(new AgentMaintenanceRetentionStrategy(new Always()));
+    }
+    LocalDateTime start = LocalDateTime.now().plusHours(1);
+    maintenanceHelper.addMaintenanceWindow(soon.getNodeName(), new MaintenanceWindow(start.format(MaintenanceWindow.DATE_FORMATTER),
+        start.plusHours(1).format(MaintenanceWindow.DATE_FORMATTER), "soon", true, true, "10", "user", null));
+    start = LocalDateTime.now().plusHours(10);
+    maintenanceHelper.addMaintenanceWindow(later.getNodeName(), new MaintenanceWindow(start.format(MaintenanceWindow.DATE_FORMATTER),
+        start.plusHours(1).format(MaintenanceWindow.DATE_FORMATTER), "later", true, true, "10", "user", null));
+
+    Queue queue = rule.jenkins.getQueue();
+    LoadBalancer original = queue.getLoadBalancer();
+    queue.setLoadBalancer(new MaintenanceLoadBalancer(original));
+    try {
+      for (int i = 0; i < 3; i++) {
+        FreeStyleProject project = rule.createFreeStyleProject();
+        project.setAssignedLabel(Label.get("balanced"));
+        FreeStyleBuild build = rule.buildAndAssertSuccess(project);
+        assertThat(build.getBuiltOnStr(), is(later.getNodeName()));
+      }
+    } finally {
+      queue.setLoadBalancer(original);
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import hudson.model.Queue;
+import hudson.model.Slave;
+import java.time.LocalDateTime;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Test that tasks are kept off agents that enter maintenance before the tasks finish.
+ */
+@WithJenkins
+class MaintenanceQueueTaskDispatcherTest extends BaseIntegrationTest {
+
+  private static Queue.BuildableItem item(long estimatedDuration) {
+    Queue.Task task = mock(Queue.Task.class);
+    when(task.getEstimatedDuration()).thenReturn(estimatedDuration);
+    return new Queue.BuildableItem(new Queue.WaitingItem(Calendar.getInstance(), task, List.of()));
+  }
+
+  @Test
+  void blocksTasksThatDontFinishBeforeMaintenance() throws Exception {
+    Slave agent = getAgent("dispatch");
+    LocalDateTime start = LocalDateTime.now().plusHours(1);
+    MaintenanceWindow mw = new MaintenanceWindow(start.format(MaintenanceWindow.DATE_FORMATTER),
+        start.plusHours(1).format(MaintenanceWindow.DATE_FORMATTER), "test", true, true, "10", "user", null);
+    maintenanceHelper.addMaintenanceWindow(agent.getNodeName(), mw);
+    MaintenanceQueueTaskDispatcher dispatcher = new MaintenanceQueueTaskDispatcher();
+
+    assertThat(dispatcher.canTake(agent, item(TimeUnit.HOURS.toMillis(3))), is(nullValue()));
+    MaintenanceQueueTaskDispatcher.ENABLED = true;
+    try {
+      assertThat(dispatcher.canTake(agent, item(TimeUnit.MINUTES.toMillis(10))), is(nullValue()));
+      assertThat(dispatcher.canTake(agent, item(-1)), is(nullValue()));
+      assertThat(dispatcher.canTake(agent, item(TimeUnit.HOURS.toMillis(3))),
+          is(instanceOf(MaintenanceQueueTaskDispatcher.MaintenanceAhead.class)));
+    } finally {
+      MaintenanceQueueTaskDispatcher.ENABLED = false;
+    }
+  }
+
+  @Test
+  void ignoresAgentsWithoutMaintenance() throws Exception {
+    Slave agent = getAgent("no-maintenance");
+    assertThat(new MaintenanceQueueTaskDispatcher().canTake(agent, item(TimeUnit.HOURS.toMillis(3))), is(nullValue()));
+  }
+}
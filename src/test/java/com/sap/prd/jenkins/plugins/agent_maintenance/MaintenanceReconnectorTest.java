@@ -0,0 +1,52 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import static com.sap.prd.jenkins.plugins.agent_maintenance.MaintenanceWindow.DATE_FORMATTER;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import hudson.model.Slave;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Test launching agents after maintenance.
+ */
+@WithJenkins
+class MaintenanceReconnectorTest extends BaseIntegrationTest {
+
+  @Test
+  void backoffIsLimited() {
+    assertThat(MaintenanceReconnector.backoff(1), is(TimeUnit.SECONDS.toMillis(30)));
+    assertThat(MaintenanceReconnector.backoff(2), is(TimeUnit.SECONDS.toMillis(60)));
+    assertThat(MaintenanceReconnector.backoff(100), is(TimeUnit.MINUTES.toMillis(MaintenanceReconnector.MAX_BACKOFF_MINUTES)));
+  }
+
+  @Test
+  @Timeout(300)
+  void agentIsLaunchedAfterMaintenance() throws Exception {
+    Slave agent = getAgent("reconnect");
+    LocalDateTime start = LocalDateTime.now().minusMinutes(1);
+    MaintenanceWindow mw = new MaintenanceWindow(start.format(DATE_FORMATTER), start.plusHours(1).format(DATE_FORMATTER), "test",
+        true, true, "-1", "test", null);
+    maintenanceHelper.addMaintenanceWindow(agent.getNodeName(), mw);
+    waitForDisconnect(agent, mw);
+
+    MaintenanceReconnector.ENABLED = true;
+    MaintenanceReconnector.JITTER_SECONDS = 0;
+    try {
+      maintenanceHelper.deleteMaintenanceWindow(agent.getNodeName(), mw.getId());
+      triggerCheckCycle(agent);
+      // the agent is launched by the reconnector and not by the regular retention strategy
+      assertThat(MaintenanceReconnector.get().getPendingCount(), is(1));
+      while (!agent.toComputer().isOnline() || MaintenanceReconnector.get().getPendingCount() > 0) {
+        TimeUnit.MILLISECONDS.sleep(100);
+      }
+    } finally {
+      MaintenanceReconnector.ENABLED = false;
+      MaintenanceReconnector.JITTER_SECONDS = 30;
+    }
+  }
+}
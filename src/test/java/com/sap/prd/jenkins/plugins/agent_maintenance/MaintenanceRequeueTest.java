@@ -0,0 +1,59 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import static com.sap.prd.jenkins.plugins.agent_maintenance.MaintenanceWindow.DATE_FORMATTER;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+
+import hudson.model.CauseAction;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Queue;
+import hudson.model.Result;
+import hudson.model.Slave;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.jvnet.hudson.test.SleepBuilder;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Test that builds aborted for maintenance are scheduled again.
+ */
+@WithJenkins
+class MaintenanceRequeueTest extends BaseIntegrationTest {
+
+  @Test
+  @Timeout(300)
+  void abortedBuildIsScheduledAgain() throws Exception {
+    MaintenanceRequeue.ENABLED = true;
+    try {
+      Slave agent = getAgent("requeue");
+      FreeStyleProject project = rule.createFreeStyleProject();
+      project.setAssignedNode(agent);
+      project.getBuildersList().add(new SleepBuilder(TimeUnit.MINUTES.toMillis(10)));
+      FreeStyleBuild build = project.scheduleBuild2(0).waitForStart();
+      rule.waitForMessage("Sleeping", build);
+
+      LocalDateTime start = LocalDateTime.now().minusMinutes(1);
+      maintenanceHelper.addMaintenanceWindow(agent.getNodeName(), new MaintenanceWindow(start.format(DATE_FORMATTER),
+          start.plusMinutes(30).format(DATE_FORMATTER), "test", true, false, "0", "test", null));
+      triggerCheckCycle(agent);
+      rule.assertBuildStatus(Result.ABORTED, rule.waitForCompletion(build));
+
+      Queue.Item item = null;
+      while (item == null) {
+        TimeUnit.MILLISECONDS.sleep(100);
+        item = rule.jenkins.getQueue().getItem(project);
+      }
+      MaintenanceRequeue.RequeueCause cause = item.getAction(CauseAction.class).findCause(MaintenanceRequeue.RequeueCause.class);
+      assertThat(cause, is(notNullValue()));
+      assertThat(cause.getAttempt(), is(1));
+      assertThat(cause.getAbortedBuild(), is(build.getExternalizableId()));
+      rule.jenkins.getQueue().cancel(item);
+    } finally {
+      MaintenanceRequeue.ENABLED = false;
+    }
+  }
+}
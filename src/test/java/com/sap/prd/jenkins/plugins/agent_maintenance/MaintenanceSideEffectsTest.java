@@ -0,0 +1,56 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import hudson.security.ACL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.Jenkins;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test running side effects in the background.
+ */
+class MaintenanceSideEffectsTest {
+
+  @Test
+  void tasksRunAsSystem() throws Exception {
+    long runs = MaintenanceSideEffects.RUN.getCount();
+    Future<String> result = MaintenanceSideEffects.submit(() -> Jenkins.getAuthentication2().getName());
+    assertThat(result.get(10, TimeUnit.SECONDS), is(ACL.SYSTEM2.getName()));
+    assertThat(MaintenanceSideEffects.RUN.getCount(), greaterThan(runs));
+  }
+
+  @Test
+  void runningTasksAreCounted() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Future<?> task = MaintenanceSideEffects.execute(() -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    assertThat(started.await(10, TimeUnit.SECONDS), is(true));
+    assertThat(MaintenanceSideEffects.getRunningCount(), greaterThan(0));
+    release.countDown();
+    task.get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void failuresArePassedToTheFuture() {
+    Future<?> task = MaintenanceSideEffects.execute(() -> {
+      throw new IllegalStateException("failed");
+    });
+    ExecutionException e = assertThrows(ExecutionException.class, () -> task.get(10, TimeUnit.SECONDS));
+    assertThat(e.getCause(), is(instanceOf(IllegalStateException.class)));
+  }
+}
@@ -0,0 +1,71 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+import hudson.model.Slave;
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Tests for the stores of maintenance definitions.
+ */
+@WithJenkins
+class MaintenanceStoreTest extends BaseIntegrationTest {
+
+  @Test
+  void xmlStoreIsDefault() {
+    assertThat(MaintenanceStore.get(), instanceOf(XmlMaintenanceStore.class));
+  }
+
+  @Test
+  void xmlStoreReturnsNothingForUnknownAgent() throws Exception {
+    XmlMaintenanceStore store = new XmlMaintenanceStore();
+    assertThat(store.load("unknown"), is(nullValue()));
+    assertThat(store.getLastModified("unknown"), is(0L));
+    store.delete("unknown");
+  }
+
+  @Test
+  void inMemoryStoreKeepsCopies() throws Exception {
+    InMemoryMaintenanceStore store = new InMemoryMaintenanceStore();
+    MaintenanceDefinitions md = new MaintenanceDefinitions(new TreeSet<>(), new HashSet<>());
+    md.getScheduled().add(new MaintenanceWindow("2099-01-01 10:00", "2099-01-01 12:00", "test", true, true, "10", "user", null));
+    store.save("agent", md);
+    long lastModified = store.getLastModified("agent");
+    md.getScheduled().clear();
+    assertThat(store.load("agent").getScheduled().size(), is(1));
+
+    store.saveAll(Map.of("agent", md));
+    assertThat(store.getLastModified("agent"), is(not(lastModified)));
+    assertThat(store.loadAll(List.of("agent", "other")).keySet(), is(Set.of("agent")));
+    store.delete("agent");
+    assertThat(store.load("agent"), is(nullValue()));
+  }
+
+  @Test
+  void helperUsesConfiguredStore() throws Exception {
+    Slave agent = getAgent("store");
+    InMemoryMaintenanceStore store = new InMemoryMaintenanceStore();
+    maintenanceHelper.setStore(store);
+    try {
+      MaintenanceWindow mw = new MaintenanceWindow("2099-01-01 10:00", "2099-01-01 12:00", "test", true, true, "10", "user", null);
+      maintenanceHelper.addMaintenanceWindow(agent.getNodeName(), mw);
+      assertThat(store.load(agent.getNodeName()).getScheduled().size(), is(1));
+      File file = new File(new File(XmlMaintenanceStore.getNodesDirectory(), agent.getNodeName()),
+          XmlMaintenanceStore.MAINTENANCE_FILE_NAME);
+      assertThat(file.exists(), is(false));
+    } finally {
+      maintenanceHelper.setStore(null);
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the sharing of maintenance window settings. */
+class MaintenanceTemplateTest {
+
+  @Test
+  void equalSettingsShareTemplate() {
+    MaintenanceTemplate template = MaintenanceTemplate.of("reason", true, false, 10, "user");
+    assertThat(MaintenanceTemplate.of("reason", true, false, 10, "user"), is(sameInstance(template)));
+    assertThat(MaintenanceTemplate.of("reason", true, false, 20, "user"), is(not(sameInstance(template))));
+  }
+
+  @Test
+  void occurrencesOfRecurringWindowsShareTemplate() {
+    List<MaintenanceWindow> windows = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      RecurringMaintenanceWindow rmw = new RecurringMaintenanceWindow("* * * * *", "recurring", true, false, "10", "1", "user", null, 0);
+      windows.addAll(rmw.getFutureMaintenanceWindows());
+    }
+    assertThat(windows.size() > 2, is(true));
+    MaintenanceTemplate template = windows.get(0).getTemplate();
+    for (MaintenanceWindow mw : windows) {
+      assertThat(mw.getTemplate(), is(sameInstance(template)));
+    }
+  }
+
+  @Test
+  void userIsNotPartOfWindowEquality() {
+    LocalDateTime start = LocalDateTime.of(2099, 1, 1, 10, 0);
+    MaintenanceWindow mw1 = new MaintenanceWindow(start, start.plusHours(1), "reason", true, true, 10, "user1", null);
+    MaintenanceWindow mw2 = new MaintenanceWindow(start, start.plusHours(1), "reason", true, true, 10, "user2", null);
+    assertThat(mw1, is(mw2));
+    assertThat(mw1.compareTo(mw2), is(0));
+    assertThat(mw1.getTemplate(), is(not(sameInstance(mw2.getTemplate()))));
+  }
+}
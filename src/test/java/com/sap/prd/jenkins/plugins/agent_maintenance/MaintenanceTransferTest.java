@@ -0,0 +1,89 @@
+package com.sap.prd.jenkins.plugins.agent_maintenance;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+/** Tests for reading and writing maintenance windows in line based formats. */
+class MaintenanceTransferTest {
+
+  private static MaintenanceDefinitions createDefinitions() {
+    MaintenanceDefinitions md = new MaintenanceDefinitions(new TreeSet<>(), new HashSet<>());
+    md.getScheduled().add(new MaintenanceWindow("2099-01-01 10:00", "2099-01-01 12:00", "Reason, with \"quotes\"\nand lines",
+        true, false, "10", "user", null));
+    md.getRecurring().add(new RecurringMaintenanceWindow("0 2 * * *", "nightly", false, true, "1h", "60m", "user", null, 0));
+    return md;
+  }
+
+  private static MaintenanceTransfer.ImportData roundTrip(MaintenanceTransfer.Format format, MaintenanceDefinitions md)
+      throws Exception {
+    MaintenanceTransfer transfer = new MaintenanceTransfer(format);
+    StringWriter out = new StringWriter();
+    transfer.writeHeader(out);
+    transfer.write(out, "agent", md);
+    return transfer.read(new BufferedReader(new StringReader(out.toString())));
+  }
+
+  @Test
+  void csvRoundTrip() throws Exception {
+    MaintenanceDefinitions md = createDefinitions();
+    MaintenanceTransfer.ImportData data = roundTrip(MaintenanceTransfer.Format.CSV, md);
+    assertThat(data.getErrors(), is(empty()));
+    MaintenanceDefinitions imported = data.getAgents().get("agent");
+    assertThat(imported.getScheduled(), is(md.getScheduled()));
+    assertThat(imported.getRecurring(), is(md.getRecurring()));
+    assertThat(imported.getScheduled().first().getId(), is(md.getScheduled().first().getId()));
+  }
+
+  @Test
+  void ndjsonRoundTrip() throws Exception {
+    MaintenanceDefinitions md = createDefinitions();
+    MaintenanceTransfer.ImportData data = roundTrip(MaintenanceTransfer.Format.NDJSON, md);
+    assertThat(data.getErrors(), is(empty()));
+    MaintenanceDefinitions imported = data.getAgents().get("agent");
+    assertThat(imported.getScheduled(), is(md.getScheduled()));
+    assertThat(imported.getRecurring(), is(md.getRecurring()));
+  }
+
+  @Test
+  void duplicatesAreRemoved() throws Exception {
+    String input = "computerName,startTime,endTime,reason,maxWaitMinutes,userid\n"
+        + "agent,2099-01-01 10:00,2099-01-01 12:00,test,10,user\n"
+        + "agent,2099-01-01 10:00,2099-01-01 12:00,test,10,other\n"
+        + "\n";
+    MaintenanceTransfer transfer = new MaintenanceTransfer(MaintenanceTransfer.Format.CSV);
+    MaintenanceTransfer.ImportData data = transfer.read(new BufferedReader(new StringReader(input)));
+    assertThat(data.getErrors(), is(empty()));
+    assertThat(data.getAgents().get("agent").getScheduled(), hasSize(1));
+  }
+
+  @Test
+  void invalidRecordsAreReported() throws Exception {
+    String input = "{\"computerName\":\"agent\",\"startTime\":\"2099-01-01 10:00\",\"endTime\":\"2099-01-01 12:00\"}\n"
+        + "{\"computerName\":\"agent\",\"startTime\":\"tomorrow\",\"endTime\":\"2099-01-01 12:00\"}\n"
+        + "{\"startTime\":\"2099-01-01 10:00\"\n"
+        + "{\"computerName\":\"agent\",\"type\":\"recurring\",\"duration\":\"60\"}\n";
+    MaintenanceTransfer transfer = new MaintenanceTransfer(MaintenanceTransfer.Format.NDJSON);
+    MaintenanceTransfer.ImportData data = transfer.read(new BufferedReader(new StringReader(input)));
+    assertThat(data.getErrors(), hasSize(3));
+    assertThat(data.getAgents().get("agent").getScheduled(), hasSize(1));
+  }
+
+  @Test
+  void quotedCsvFieldsMayContainLineBreaks() throws Exception {
+    BufferedReader in = new BufferedReader(new StringReader("a,\"b,\"\"c\"\"\r\nd\"\r\ne\n"));
+    assertThat(MaintenanceTransfer.readCsvRecord(in), contains("a", "b,\"c\"\r\nd"));
+    assertThat(MaintenanceTransfer.readCsvRecord(in), contains("e"));
+    assertThat(MaintenanceTransfer.readCsvRecord(in), is(nullValue()));
+  }
+}
@@ -1,12 +1,29 @@
 package com.sap.prd.jenkins.plugins.agent_maintenance;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
 
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.converters.reflection.ReflectionConverter;
+import hudson.XmlFile;
 import hudson.model.Node;
 import hudson.slaves.RetentionStrategy;
+import hudson.util.XStream2;
+import java.io.File;
 import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import jenkins.model.Jenkins;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 import org.jvnet.hudson.test.recipes.LocalData;
@@ -25,4 +42,183 @@ class MigrationTest extends BaseIntegrationTest {
     assertThat(retentionStrategy, instanceOf(AgentMaintenanceRetentionStrategy.class));
     assertThat(MaintenanceHelper.getInstance().hasMaintenanceWindows("agent"), is(true));
   }
+
+  @Test
+  void compactFormatRoundTrip() {
+    MaintenanceDefinitions md = new MaintenanceDefinitions(new TreeSet<>(), new HashSet<>());
+    md.getScheduled().add(new MaintenanceWindow("2099-01-01 10:00", "2099-01-01 12:00", "Reason <with> \"markup\"",
+        true, false, "10", "user", null));
+    md.getRecurring().add(new RecurringMaintenanceWindow("0 2 * * 6", "weekly", false, true, "1h", "60m", "user", null, 1234));
+    String xml = Jenkins.XSTREAM2.toXML(md);
+    assertThat(xml, containsString("version=\"2\""));
+    assertThat(xml, not(containsString("startDateTime")));
+
+    MaintenanceDefinitions read = (MaintenanceDefinitions) Jenkins.XSTREAM2.fromXML(xml);
+    assertThat(read.getScheduled(), is(md.getScheduled()));
+    assertThat(read.getRecurring(), is(md.getRecurring()));
+    MaintenanceWindow mw = read.getScheduled().first();
+    assertThat(mw.getId(), is(md.getScheduled().first().getId()));
+    assertThat(mw.getReason(), is("Reason <with> \"markup\""));
+    assertThat(mw.getMaxWaitMinutes(), is(10));
+    assertThat(mw.isTakeOnline(), is(true));
+    RecurringMaintenanceWindow rmw = read.getRecurring().iterator().next();
+    assertThat(rmw.getNextCheck(), is(1234L));
+    assertThat(rmw.getDuration(), is(60));
+    assertThat(rmw.getMaxWaitMinutes(), is("1h"));
+  }
+
+  @Test
+  void compactFormatFileRoundTrip() throws Exception {
+    MaintenanceDefinitions md = new MaintenanceDefinitions(new TreeSet<>(), new HashSet<>());
+    MaintenanceWindow mw = new MaintenanceWindow("2099-01-01 10:00", "2099-01-01 12:00", "disk", true, false, "10", "user", null);
+    mw.setRemainingExecutors(2);
+    md.getScheduled().add(mw);
+    RecurringMaintenanceWindow rmw = new RecurringMaintenanceWindow("0 2 * * 6", "weekly", false, true, "1h", "60m", "user", null, 1234);
+    rmw.setRemainingExecutors(3);
+    md.getRecurring().add(rmw);
+
+    // the same way as the store writes and reads maintenance-windows.xml
+    XmlFile file = new XmlFile(new File(rule.jenkins.getRootDir(), XmlMaintenanceStore.MAINTENANCE_FILE_NAME));
+    file.write(md);
+    MaintenanceDefinitions read = (MaintenanceDefinitions) file.read();
+    assertThat(read.getScheduled(), is(md.getScheduled()));
+    assertThat(read.getRecurring(), is(md.getRecurring()));
+    MaintenanceWindow readWindow = read.getScheduled().first();
+    assertThat(readWindow.getId(), is(mw.getId()));
+    assertThat(readWindow.getReason(), is("disk"));
+    assertThat(readWindow.getMaxWaitMinutes(), is(10));
+    assertThat(readWindow.getRemainingExecutors(), is(2));
+    assertThat(readWindow.isKeepUpWhenActive(), is(false));
+    RecurringMaintenanceWindow readRecurring = read.getRecurring().iterator().next();
+    assertThat(readRecurring.getId(), is(rmw.getId()));
+    assertThat(readRecurring.getReason(), is("weekly"));
+    assertThat(readRecurring.getNextCheck(), is(1234L));
+    assertThat(readRecurring.getRemainingExecutors(), is(3));
+  }
+
+  @Test
+  void compactFormatIsSmallerOnLargeFixture() throws Exception {
+    MaintenanceDefinitions md = new MaintenanceDefinitions(new TreeSet<>(), new HashSet<>());
+    LocalDateTime start = LocalDateTime.of(2099, 1, 1, 10, 0);
+    for (int i = 0; i < 2000; i++) {
+      MaintenanceWindow mw = new MaintenanceWindow(start.plusHours(i), start.plusHours(i + 2), "reason " + i, i % 2 == 0, i % 3 == 0,
+          Integer.toString(i % 60), "user" + i % 7, null);
+      mw.setRemainingExecutors(i % 4);
+      md.getScheduled().add(mw);
+    }
+    for (int i = 0; i < 500; i++) {
+      RecurringMaintenanceWindow rmw = new RecurringMaintenanceWindow((i % 60) + " 2 * * " + (i % 7), "weekly " + i, i % 2 == 0,
+          i % 3 == 0, "1h", (60 + i) + "m", "user" + i % 7, null, 1000L * i);
+      rmw.setRemainingExecutors(i % 4);
+      md.getRecurring().add(rmw);
+    }
+
+    // the layout that was written before the compact converters existed
+    XStream2 reflective = new XStream2();
+    reflective.registerConverter(new ReflectionConverter(reflective.getMapper(), reflective.getReflectionProvider()) {
+      @Override
+      public boolean canConvert(Class type) {
+        return type == MaintenanceDefinitions.class || type == MaintenanceWindow.class || type == RecurringMaintenanceWindow.class;
+      }
+    }, XStream.PRIORITY_VERY_HIGH);
+    File reflectiveFile = new File(rule.jenkins.getRootDir(), "reflective.xml");
+    new XmlFile(reflective, reflectiveFile).write(md);
+
+    XmlFile file = new XmlFile(new File(rule.jenkins.getRootDir(), XmlMaintenanceStore.MAINTENANCE_FILE_NAME));
+    file.write(md);
+    assertThat(file.getFile().length(), lessThan(reflectiveFile.length()));
+
+    MaintenanceDefinitions read = (MaintenanceDefinitions) file.read();
+    assertThat(read.getScheduled(), hasSize(2000));
+    assertThat(read.getRecurring(), hasSize(500));
+    Map<String, MaintenanceWindow> scheduled = md.getScheduled().stream()
+        .collect(Collectors.toMap(MaintenanceWindow::getId, Function.identity()));
+    for (MaintenanceWindow mw : read.getScheduled()) {
+      assertThat(Jenkins.XSTREAM2.toXML(mw), is(Jenkins.XSTREAM2.toXML(scheduled.get(mw.getId()))));
+    }
+    Map<String, RecurringMaintenanceWindow> recurring = md.getRecurring().stream()
+        .collect(Collectors.toMap(RecurringMaintenanceWindow::getId, Function.identity()));
+    for (RecurringMaintenanceWindow rmw : read.getRecurring()) {
+      assertThat(Jenkins.XSTREAM2.toXML(rmw), is(Jenkins.XSTREAM2.toXML(recurring.get(rmw.getId()))));
+    }
+  }
+
+  @Test
+  void remainingExecutorsRoundTrip() {
+    MaintenanceDefinitions md = new MaintenanceDefinitions(new TreeSet<>(), new HashSet<>());
+    MaintenanceWindow mw = new MaintenanceWindow("2099-01-01 10:00", "2099-01-01 12:00", "disk", true, true, "10", "user", null);
+    mw.setRemainingExecutors(2);
+    md.getScheduled().add(mw);
+    RecurringMaintenanceWindow rmw = new RecurringMaintenanceWindow("0 2 * * 6", "weekly", false, true, "1h", "60m", "user", null, 0);
+    rmw.setRemainingExecutors(3);
+    md.getRecurring().add(rmw);
+
+    MaintenanceDefinitions read = (MaintenanceDefinitions) Jenkins.XSTREAM2.fromXML(Jenkins.XSTREAM2.toXML(md));
+    assertThat(read.getScheduled().first().getRemainingExecutors(), is(2));
+    assertThat(read.getScheduled(), is(md.getScheduled()));
+    assertThat(read.getRecurring().iterator().next().getRemainingExecutors(), is(3));
+  }
+
+  @Test
+  void readOldDefinitionsFormat() {
+    String xml = """
+        <com.sap.prd.jenkins.plugins.agent__maintenance.MaintenanceDefinitions>
+          <scheduled class="sorted-set">
+            <com.sap.prd.jenkins.plugins.agent__maintenance.MaintenanceWindow>
+              <reason>test</reason>
+              <takeOnline>true</takeOnline>
+              <keepUpWhenActive>false</keepUpWhenActive>
+              <maxWaitMinutes>30</maxWaitMinutes>
+              <userid>user</userid>
+              <id>69911276-9e33-4e10-b91b-10533feb0008</id>
+              <startDateTime>2099-03-08T13:17:00</startDateTime>
+              <endDateTime>2099-03-09T13:17:00</endDateTime>
+            </com.sap.prd.jenkins.plugins.agent__maintenance.MaintenanceWindow>
+          </scheduled>
+          <recurring>
+            <com.sap.prd.jenkins.plugins.agent__maintenance.RecurringMaintenanceWindow>
+              <reason>weekly</reason>
+              <takeOnline>false</takeOnline>
+              <keepUpWhenActive>true</keepUpWhenActive>
+              <maxWaitMinutes>10</maxWaitMinutes>
+              <userid>user</userid>
+              <id>d3c5b7a2-1d5e-4c3a-9d3e-0f2b7c1a4e11</id>
+              <startTimeSpec>0 2 * * 6</startTimeSpec>
+              <duration>120</duration>
+              <nextCheck>1234</nextCheck>
+            </com.sap.prd.jenkins.plugins.agent__maintenance.RecurringMaintenanceWindow>
+          </recurring>
+        </com.sap.prd.jenkins.plugins.agent__maintenance.MaintenanceDefinitions>
+        """;
+    MaintenanceDefinitions md = (MaintenanceDefinitions) Jenkins.XSTREAM2.fromXML(xml);
+    assertThat(md.getScheduled(), hasSize(1));
+    MaintenanceWindow mw = md.getScheduled().first();
+    assertThat(mw.getId(), is("69911276-9e33-4e10-b91b-10533feb0008"));
+    assertThat(mw.getStartDateTime(), is(LocalDateTime.of(2099, 3, 8, 13, 17)));
+    assertThat(mw.getMaxWaitMinutes(), is(30));
+    assertThat(md.getRecurring(), hasSize(1));
+    RecurringMaintenanceWindow rmw = md.getRecurring().iterator().next();
+    assertThat(rmw.getStartTimeSpec(), is("0 2 * * 6"));
+    assertThat(rmw.getDuration(), is(120));
+    assertThat(rmw.getNextCheck(), is(1234L));
+  }
+
+  @Test
+  void readOldStringDates() {
+    String xml = """
+        <com.sap.prd.jenkins.plugins.agent__maintenance.MaintenanceWindow>
+          <startTime>2099-3-8 9:05</startTime>
+          <endTime>2099-03-09 13:17</endTime>
+          <reason>test</reason>
+          <takeOnline>true</takeOnline>
+          <keepUpWhenActive>true</keepUpWhenActive>
+          <maxWaitMinutes>-1</maxWaitMinutes>
+          <userid>user</userid>
+        </com.sap.prd.jenkins.plugins.agent__maintenance.MaintenanceWindow>
+        """;
+    MaintenanceWindow mw = (MaintenanceWindow) Jenkins.XSTREAM2.fromXML(xml);
+    assertThat(mw.getStartDateTime(), is(LocalDateTime.of(2099, 3, 8, 9, 5)));
+    assertThat(mw.getEndDateTime(), is(LocalDateTime.of(2099, 3, 9, 13, 17)));
+    assertThat(mw.getId(), notNullValue());
+  }
 }